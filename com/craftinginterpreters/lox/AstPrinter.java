@@ -1,17 +1,147 @@
 package com.craftinginterpreters.lox;
 
-class AstPrinter implements Expr.Visitor<String> {
+import java.util.List;
+
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     String print(Expr expr) {
         String message = expr.accept(this);
         System.out.println(message);
         return message;
     }
 
+    // Prints each top-level statement on its own line.
+    void print(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            System.out.println(statement.accept(this));
+        }
+    }
+
+    /// Stmt.Visitor implementation
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        return parenthesize("block", stmt.statements);
+    }
+
+    @Override
+    public String visitBreakStmt(Stmt.Break stmt) {
+        return "(break)";
+    }
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        String name = "class " + stmt.name.lexeme;
+        if (stmt.superclass != null) name += " < " + stmt.superclass.name.lexeme;
+        return parenthesize(name, stmt.methods);
+    }
+
+    @Override
+    public String visitContinueStmt(Stmt.Continue stmt) {
+        return "(continue)";
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringBuilder name = new StringBuilder("fun " + stmt.name.lexeme + " (");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            if (i > 0) name.append(" ");
+            name.append(stmt.params.get(i).lexeme);
+        }
+        name.append(")");
+        return parenthesize(name.toString(), stmt.body);
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        String condition = stmt.condition.accept(this);
+        String thenBranch = stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            return "(if " + condition + " " + thenBranch + ")";
+        }
+        return "(if " + condition + " " + thenBranch + " " + stmt.elseBranch.accept(this) + ")";
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return "(return)";
+        return parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return "(var " + stmt.name.lexeme + ")";
+        return parenthesize("var " + stmt.name.lexeme, stmt.initializer);
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return "(while " + stmt.condition.accept(this) + " " + stmt.body.accept(this) + ")";
+    }
+
+    @Override
+    public String visitForStmt(Stmt.For stmt) {
+        String loop = "(for " + stmt.condition.accept(this) + " " + stmt.body.accept(this);
+        if (stmt.increment != null) loop += " " + stmt.increment.accept(this);
+        return loop + ")";
+    }
+
+    /// Expr.Visitor implementation
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return parenthesize("= " + expr.name.lexeme, expr.value);
+    }
+
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
     }
 
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        Expr[] operands = new Expr[expr.arguments.size() + 1];
+        operands[0] = expr.callee;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            operands[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("call", operands);
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize(". " + expr.name.lexeme, expr.object);
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize(".= " + expr.name.lexeme, expr.object, expr.value);
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return parenthesize("[]", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitSetIndexExpr(Expr.SetIndex expr) {
+        return parenthesize("[]=", expr.object, expr.index, expr.value);
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return "(super " + expr.method.lexeme + ")";
+    }
+
     @Override
     public String visitGroupingExpr(Expr.Grouping expr) {
         return parenthesize("group", expr.expression);
@@ -20,14 +150,25 @@ class AstPrinter implements Expr.Visitor<String> {
     @Override
     public String visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null) return "nil";
+        if (expr.value instanceof String) return "\"" + expr.value + "\"";
         return expr.value.toString();
     }
 
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
         return parenthesize(expr.operator.lexeme, expr.right);
     }
 
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.name.lexeme;
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder builder = new StringBuilder();
 
@@ -41,6 +182,19 @@ class AstPrinter implements Expr.Visitor<String> {
         return builder.toString();
     }
 
+    private String parenthesize(String name, List<? extends Stmt> statements) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("(").append(name);
+        for (Stmt statement : statements) {
+            builder.append(" ");
+            builder.append(statement.accept(this));
+        }
+        builder.append(")");
+
+        return builder.toString();
+    }
+
     // -123 * (45.67 + 0.33)
     public static void test() {
         Expr expression = new Expr.Binary(
@@ -0,0 +1,276 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+// Rebuilds a syntax tree written by AstWriter, resolved exactly as it was
+// when it was written. Identifiers are interned again, since symbols are only
+// numbered for the compilation that scanned them, and globals are numbered
+// among those of the engine reading the tree.
+//
+// Input that was not written by AstWriter fails with an
+// IllegalArgumentException or an IndexOutOfBoundsException.
+class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final byte[] bytes;
+    private int position;
+    private final String[] strings;
+    private final double[] numbers;
+    // Line 0 stands in for the line of each use.
+    private final Token[] tokens;
+    private int line = 0;
+
+    private AstReader(byte[] bytes, int position, Symbols globals) {
+        this.bytes = bytes;
+        this.position = position;
+        Symbols symbols = new Symbols();
+
+        strings = new String[varint()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = varint();
+            strings[i] = new String(bytes, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+        }
+        numbers = new double[varint()];
+        for (int i = 0; i < numbers.length; i++) {
+            long bits = 0;
+            for (int j = 0; j < 8; j++) {
+                bits = (bits << 8) | (bytes[this.position++] & 0xff);
+            }
+            numbers[i] = Double.longBitsToDouble(bits);
+        }
+        tokens = new Token[varint()];
+        for (int i = 0; i < tokens.length; i++) {
+            int typeAndFlags = varint();
+            TokenType type = TYPES[typeAndFlags >>> 2];
+            String lexeme = strings[varint()];
+            if ((typeAndFlags & SYMBOL) == 0) {
+                tokens[i] = new Token(type, lexeme, null, 0);
+            } else {
+                int symbol = symbols.intern(lexeme);
+                tokens[i] = new Token(type, symbols.name(symbol), null, 0, symbol);
+            }
+            if ((typeAndFlags & GLOBAL) != 0) tokens[i].global = globals.intern(lexeme);
+        }
+    }
+
+    // Reads the pools and statements that start at position in bytes, which
+    // must end with them.
+    static List<Stmt> read(byte[] bytes, int position, Symbols globals) {
+        AstReader reader = new AstReader(bytes, position, globals);
+        List<Stmt> statements = reader.stmts();
+        if (reader.position != bytes.length) {
+            throw new IllegalArgumentException("Trailing bytes after syntax tree.");
+        }
+        return statements;
+    }
+
+    private Stmt stmt() {
+        int tag = tag();
+        switch (tag) {
+            case 0: return null;
+            case BLOCK: {
+                Stmt.Block block = new Stmt.Block(stmts());
+                block.slotCount = varint();
+                block.onStack = flag();
+                block.frameSize = varint();
+                block.scoped = flag();
+                return block;
+            }
+            case BREAK: return new Stmt.Break(token());
+            case CLASS: {
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable)expr();
+                List<Stmt.Function> methods = new ArrayList<>();
+                for (int count = varint(); count > 0; count--) {
+                    methods.add((Stmt.Function)stmt());
+                }
+                return new Stmt.Class(name, superclass, methods);
+            }
+            case CONTINUE: return new Stmt.Continue(token());
+            case EXPRESSION: return new Stmt.Expression(expr());
+            case FOR: {
+                Expr condition = expr();
+                Stmt body = stmt();
+                return new Stmt.For(condition, body, expr());
+            }
+            case FUNCTION: {
+                Token name = token();
+                List<Token> params = new ArrayList<>();
+                for (int count = varint(); count > 0; count--) {
+                    params.add(token());
+                }
+                Stmt.Function function = new Stmt.Function(name, params, stmts());
+                function.slotCount = varint();
+                function.declaresClosures = flag();
+                function.frameSize = varint();
+                return function;
+            }
+            case IF: {
+                Expr condition = expr();
+                Stmt thenBranch = stmt();
+                return new Stmt.If(condition, thenBranch, stmt());
+            }
+            case WHILE: {
+                Expr condition = expr();
+                return new Stmt.While(condition, stmt());
+            }
+            case RETURN: {
+                Stmt.Return result = new Stmt.Return(token(), expr());
+                result.tailCall = flag();
+                return result;
+            }
+            case VAR: {
+                Stmt.Var var = new Stmt.Var(token(), expr());
+                var.frameSlot = slot();
+                return var;
+            }
+        }
+        throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+    }
+
+    private Expr expr() {
+        int tag = tag();
+        switch (tag) {
+            case 0: return null;
+            case ASSIGN: {
+                Expr.Assign assign = new Expr.Assign(token(), expr());
+                assign.depth = slot();
+                assign.slot = slot();
+                assign.frameSlot = slot();
+                assign.heapDepth = slot();
+                return assign;
+            }
+            case BINARY: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Binary(left, operator, expr());
+            }
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                return new Expr.Call(callee, paren, exprs());
+            }
+            case GET: {
+                Expr object = expr();
+                return new Expr.Get(object, token());
+            }
+            case GROUPING: return new Expr.Grouping(expr());
+            case INDEX: {
+                Expr object = expr();
+                Token bracket = token();
+                return new Expr.Index(object, bracket, expr());
+            }
+            case LITERAL: return new Expr.Literal(literal());
+            case LOGICAL: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Logical(left, operator, expr());
+            }
+            case SET: {
+                Expr object = expr();
+                Token name = token();
+                return new Expr.Set(object, name, expr());
+            }
+            case SET_INDEX: {
+                Expr object = expr();
+                Token bracket = token();
+                Expr index = expr();
+                return new Expr.SetIndex(object, bracket, index, expr());
+            }
+            case SUPER: {
+                Token keyword = token();
+                Expr.Super expr = new Expr.Super(keyword, token());
+                expr.depth = slot();
+                expr.slot = slot();
+                expr.heapDepth = slot();
+                return expr;
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = slot();
+                expr.slot = slot();
+                expr.heapDepth = slot();
+                return expr;
+            }
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token());
+                expr.depth = slot();
+                expr.slot = slot();
+                expr.frameSlot = slot();
+                expr.heapDepth = slot();
+                return expr;
+            }
+            case UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, expr());
+            }
+        }
+        throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+    }
+
+    private Object literal() {
+        int kind = tag();
+        switch (kind) {
+            case NIL: return null;
+            case FALSE: return false;
+            case TRUE: return true;
+            case NUMBER: return numbers[varint()];
+            case STRING: return strings[varint()];
+        }
+        throw new IllegalArgumentException("Unknown literal kind " + kind + ".");
+    }
+
+    private List<Stmt> stmts() {
+        int count = varint();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(stmt());
+        }
+        return statements;
+    }
+
+    private List<Expr> exprs() {
+        int count = varint();
+        List<Expr> expressions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            expressions.add(expr());
+        }
+        return expressions;
+    }
+
+    private Token token() {
+        Token token = tokens[varint()];
+        int delta = varint();
+        line += (delta >>> 1) ^ -(delta & 1);
+        Token read = new Token(token.type, token.lexeme, null, line, token.symbol);
+        read.global = token.global;
+        return read;
+    }
+
+    private int tag() {
+        return bytes[position++] & 0xff;
+    }
+
+    private boolean flag() {
+        return tag() != 0;
+    }
+
+    private int slot() {
+        return varint() - 1;
+    }
+
+    private int varint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = bytes[position++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+            if (shift >= 28) throw new IllegalArgumentException("Varint too long.");
+        }
+    }
+}
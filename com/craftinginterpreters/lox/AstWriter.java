@@ -0,0 +1,451 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Encodes a resolved syntax tree for ScriptCache, with everything the
+// Resolver recorded on it, so AstReader can rebuild the tree without
+// scanning, parsing or resolving the source again.
+//
+// Each node is a tag byte followed by its fields, and a missing child is
+// tag 0. Lexemes and string literals are written once into a string pool,
+// number literals into a number pool, and each distinct token type and
+// lexeme into a token pool, with nodes referring to entries by index. A
+// token in a node is its index in the token pool followed by its line, as
+// the zigzag encoded difference from the line of the token before, which is
+// mostly 0. Indices and slots are unsigned LEB128 varints, slots offset by
+// one since -1 means unresolved.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Tags of the expression nodes.
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int CALL = 3;
+    static final int GET = 4;
+    static final int GROUPING = 5;
+    static final int INDEX = 6;
+    static final int LITERAL = 7;
+    static final int LOGICAL = 8;
+    static final int SET = 9;
+    static final int SET_INDEX = 10;
+    static final int SUPER = 11;
+    static final int THIS = 12;
+    static final int VARIABLE = 13;
+    static final int UNARY = 14;
+
+    // Tags of the statement nodes.
+    static final int BLOCK = 1;
+    static final int BREAK = 2;
+    static final int CLASS = 3;
+    static final int CONTINUE = 4;
+    static final int EXPRESSION = 5;
+    static final int FOR = 6;
+    static final int FUNCTION = 7;
+    static final int IF = 8;
+    static final int WHILE = 9;
+    static final int RETURN = 10;
+    static final int VAR = 11;
+
+    // Flags of a token in the token pool.
+    static final int SYMBOL = 2;
+    static final int GLOBAL = 1;
+
+    // What follows a LITERAL tag.
+    static final int NIL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    // The encoded tree, filled by hand since ByteArrayOutputStream locks on
+    // every byte.
+    private byte[] code = new byte[4096];
+    private int length = 0;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> stringPool = new ArrayList<>();
+    private final Map<Double, Integer> numbers = new HashMap<>();
+    private final List<Double> numberPool = new ArrayList<>();
+    // Keyed on the index of the token's lexeme in the string pool, shifted
+    // above its type and flags, see typeAndFlags().
+    private final Map<Long, Integer> tokens = new HashMap<>();
+    private final List<Token> tokenPool = new ArrayList<>();
+    private int line = 0;
+
+    private AstWriter() {}
+
+    // Writes the pools and then the statements to out.
+    static void write(List<Stmt> statements, OutputStream out) throws IOException {
+        AstWriter writer = new AstWriter();
+        writer.writeStmts(statements);
+
+        ByteArrayOutputStream pools = new ByteArrayOutputStream();
+        varint(pools, writer.stringPool.size());
+        for (String string : writer.stringPool) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            varint(pools, utf8.length);
+            pools.write(utf8, 0, utf8.length);
+        }
+        varint(pools, writer.numberPool.size());
+        for (double number : writer.numberPool) {
+            long bits = Double.doubleToRawLongBits(number);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                pools.write((int)(bits >>> shift));
+            }
+        }
+        // The type and flags share a varint.
+        varint(pools, writer.tokenPool.size());
+        for (Token token : writer.tokenPool) {
+            varint(pools, typeAndFlags(token));
+            varint(pools, writer.string(token.lexeme));
+        }
+        pools.writeTo(out);
+        out.write(writer.code, 0, writer.length);
+    }
+
+    /// Stmt.Visitor implementation
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        writeStmts(stmt.statements);
+        varint(stmt.slotCount);
+        flag(stmt.onStack);
+        varint(stmt.frameSize);
+        flag(stmt.scoped);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        tag(BREAK);
+        token(stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        token(stmt.name);
+        write(stmt.superclass);
+        varint(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            write(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        tag(CONTINUE);
+        token(stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        tag(FOR);
+        write(stmt.condition);
+        write(stmt.body);
+        write(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        token(stmt.name);
+        varint(stmt.params.size());
+        for (Token param : stmt.params) {
+            token(param);
+        }
+        writeStmts(stmt.body);
+        varint(stmt.slotCount);
+        flag(stmt.declaresClosures);
+        varint(stmt.frameSize);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        token(stmt.keyword);
+        write(stmt.value);
+        flag(stmt.tailCall);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        token(stmt.name);
+        write(stmt.initializer);
+        slot(stmt.frameSlot);
+        return null;
+    }
+
+    /// Expr.Visitor implementation
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        token(expr.name);
+        write(expr.value);
+        slot(expr.depth);
+        slot(expr.slot);
+        slot(expr.frameSlot);
+        slot(expr.heapDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        token(expr.paren);
+        writeExprs(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        tag(GET);
+        write(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        tag(INDEX);
+        write(expr.object);
+        token(expr.bracket);
+        write(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        Object value = expr.value;
+        if (value == null) {
+            tag(NIL);
+        } else if (value instanceof Boolean) {
+            tag((boolean)value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            tag(NUMBER);
+            varint(number((double)value));
+        } else {
+            tag(STRING);
+            varint(string(value.toString()));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        tag(SET);
+        write(expr.object);
+        token(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        tag(SET_INDEX);
+        write(expr.object);
+        token(expr.bracket);
+        write(expr.index);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        slot(expr.depth);
+        slot(expr.slot);
+        slot(expr.heapDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        token(expr.keyword);
+        slot(expr.depth);
+        slot(expr.slot);
+        slot(expr.heapDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        token(expr.name);
+        slot(expr.depth);
+        slot(expr.slot);
+        slot(expr.frameSlot);
+        slot(expr.heapDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    /// Helpers
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            tag(0);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            tag(0);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void writeStmts(List<Stmt> statements) {
+        varint(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void writeExprs(List<Expr> expressions) {
+        varint(expressions.size());
+        for (Expr expression : expressions) {
+            write(expression);
+        }
+    }
+
+    // A token only needs what runtime errors and symbol lookups read: its
+    // type, lexeme and line, whether the lexeme is interned and whether the
+    // Resolver bound it as a global.
+    private void token(Token token) {
+        long key = (long)string(token.lexeme) << 32 | typeAndFlags(token);
+        varint(tokens.computeIfAbsent(key, unused -> {
+            tokenPool.add(token);
+            return tokenPool.size() - 1;
+        }));
+        int delta = token.line - line;
+        varint((delta << 1) ^ (delta >> 31));
+        line = token.line;
+    }
+
+    private static int typeAndFlags(Token token) {
+        return token.type.ordinal() << 2 | (token.symbol >= 0 ? SYMBOL : 0) |
+            (token.global >= 0 ? GLOBAL : 0);
+    }
+
+    private int string(String string) {
+        return strings.computeIfAbsent(string, key -> {
+            stringPool.add(key);
+            return stringPool.size() - 1;
+        });
+    }
+
+    private int number(double number) {
+        return numbers.computeIfAbsent(number, key -> {
+            numberPool.add(key);
+            return numberPool.size() - 1;
+        });
+    }
+
+    private void tag(int tag) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte)tag;
+    }
+
+    private void flag(boolean value) {
+        tag(value ? 1 : 0);
+    }
+
+    private void slot(int slot) {
+        varint(slot + 1);
+    }
+
+    private void varint(int value) {
+        while ((value & ~0x7f) != 0) {
+            tag((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        tag(value);
+    }
+
+    private static void varint(ByteArrayOutputStream to, int value) {
+        while ((value & ~0x7f) != 0) {
+            to.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        to.write(value);
+    }
+}
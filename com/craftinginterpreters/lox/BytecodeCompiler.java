@@ -0,0 +1,541 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+// Compiles a resolved syntax tree into bytecode for the VM. Locals no function
+// can capture live in the call's stack window at the frame slot the Resolver
+// gave them. Only captured scopes get an Environment, which code reaches by
+// counting the Environments in between and reading the slot by index.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Chunk chunk = new Chunk();
+    // Constant index of the PropertyCache for each property name. Get and
+    // Invoke sites share theirs, Set sites get others since an entry a Set
+    // leaves may be for a slot the shape doesn't have yet.
+    private final Map<String, Integer> getCaches = new HashMap<>();
+    private final Map<String, Integer> setCaches = new HashMap<>();
+    // Mirrors the Resolver's scope stack: zero means top-level code.
+    private int scopeDepth;
+    // Captured scopes entered in this function, which have an Environment.
+    private int heapScopes = 0;
+    // Stack slots the function's locals need. Frames never nest within a
+    // function, since captured scopes only enclose uncaptured ones, so each
+    // starts at slot 0 and the largest decides.
+    private int frameSize = 0;
+    private int stackDepth = 0;
+    // Innermost loop being compiled, null outside of loops.
+    private Loop loop = null;
+
+    private static class Loop {
+        final Loop enclosing;
+        final int heapScopes;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int heapScopes) {
+            this.enclosing = enclosing;
+            this.heapScopes = heapScopes;
+        }
+    }
+
+    private BytecodeCompiler(int scopeDepth) {
+        this.scopeDepth = scopeDepth;
+    }
+
+    // Throws a RuntimeError at the token of the code that outgrows what an
+    // instruction can address, which LoxEngine reports as a compile error.
+    static FunctionProto compile(List<Stmt> statements) {
+        BytecodeCompiler compiler = new BytecodeCompiler(0);
+        for (Stmt statement : statements) {
+            compiler.compile(statement);
+        }
+        Token end = new Token(TokenType.EOF, "", null, 0);
+        compiler.emit(NIL, end);
+        compiler.emit(RETURN, end);
+        return new FunctionProto("script", 0, false, 0, compiler.frameSize,
+            compiler.chunk.finish());
+    }
+
+    private static FunctionProto compileFunction(Stmt.Function function, int scopeDepth) {
+        BytecodeCompiler compiler = new BytecodeCompiler(scopeDepth);
+        compiler.frameSize = function.frameSize;
+        for (Stmt statement : function.body) {
+            compiler.compile(statement);
+        }
+        compiler.emit(NIL, function.name);
+        compiler.emit(RETURN, function.name);
+        return new FunctionProto(function.name.lexeme, function.params.size(),
+            function.declaresClosures, function.slotCount, compiler.frameSize,
+            compiler.chunk.finish());
+    }
+
+    /// Stmt.Visitor implementation
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        // An uncaptured block only needs its slots in the frame.
+        if (stmt.onStack) {
+            frameSize = Math.max(frameSize, stmt.frameSize);
+            scopeDepth++;
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            scopeDepth--;
+            return null;
+        }
+
+        emit(PUSH_SCOPE, null);
+        chunk.writeShort(stmt.slotCount, null);
+        scopeDepth++;
+        heapScopes++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        heapScopes--;
+        scopeDepth--;
+        emit(POP_SCOPE, null);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // Methods of a subclass close over a scope holding 'super', and CLASS
+        // takes another copy of the superclass from below the methods.
+        boolean subclass = stmt.superclass != null;
+        if (subclass) {
+            compile(stmt.superclass);
+            emit(PUSH_SCOPE, stmt.superclass.name);
+            chunk.writeShort(1, stmt.superclass.name);
+            scopeDepth++;
+            heapScopes++;
+            emit(DEFINE_CAPTURED, stmt.superclass.name);
+            emit(GET_CAPTURED, stmt.superclass.name);
+            chunk.writeShort(0, stmt.superclass.name);
+            chunk.writeShort(0, stmt.superclass.name);
+        }
+
+        // The methods close over the current scope and CLASS collects them
+        // off the stack. Their bodies sit inside the scope that binds 'this'.
+        for (Stmt.Function method : stmt.methods) {
+            FunctionProto proto = compileFunction(method, scopeDepth + 2);
+            emit(CLOSURE, method.name);
+            chunk.writeShort(makeConstant(proto), method.name);
+        }
+        emit(CLASS, stmt.name);
+        chunk.writeShort(makeConstant(stmt.name.lexeme), stmt.name);
+        chunk.write(stmt.methods.size(), stmt.name);
+        // The VM reports a superclass that is no class at this byte's token.
+        chunk.write(subclass ? 1 : 0, subclass ? stmt.superclass.name : stmt.name);
+        adjustStack(-stmt.methods.size() - (subclass ? 1 : 0));
+
+        if (subclass) {
+            emit(POP_SCOPE, stmt.name);
+            heapScopes--;
+            scopeDepth--;
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        FunctionProto proto = compileFunction(stmt, scopeDepth + 1);
+        emit(CLOSURE, stmt.name);
+        chunk.writeShort(makeConstant(proto), stmt.name);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(JUMP_IF_FALSE, null);
+        emit(POP, null);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(JUMP, null);
+
+        patchJump(thenJump);
+        // The condition is still on the stack when the jump lands here.
+        adjustStack(1);
+        emit(POP, null);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        compileLoop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        compileLoop(stmt.condition, stmt.body, stmt.increment);
+        return null;
+    }
+
+    private void compileLoop(Expr condition, Stmt body, Expr increment) {
+        loop = new Loop(loop, heapScopes);
+        int loopStart = chunk.count;
+        compile(condition);
+        int exitJump = emitJump(JUMP_IF_FALSE, null);
+        emit(POP, null);
+        compile(body);
+
+        for (int jump : loop.continueJumps) patchJump(jump);
+        if (increment != null) {
+            compile(increment);
+            emit(POP, null);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emit(POP, null);
+        for (int jump : loop.breakJumps) patchJump(jump);
+        loop = loop.enclosing;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        exitScopes(stmt.keyword);
+        loop.breakJumps.add(emitJump(JUMP, stmt.keyword));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        exitScopes(stmt.keyword);
+        loop.continueJumps.add(emitJump(JUMP, stmt.keyword));
+        return null;
+    }
+
+    // Leaves the captured blocks entered since the start of the innermost loop.
+    private void exitScopes(Token keyword) {
+        for (int depth = heapScopes; depth > loop.heapScopes; depth--) {
+            emit(POP_SCOPE, keyword);
+        }
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            compileCall((Expr.Call)stmt.value, TAIL_CALL);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(NIL, stmt.keyword);
+        }
+        emit(RETURN, stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(NIL, stmt.name);
+        }
+        if (stmt.frameSlot >= 0) {
+            emit(DEFINE_LOCAL, stmt.name);
+            chunk.writeShort(stmt.frameSlot, stmt.name);
+        } else {
+            defineVariable(stmt.name);
+        }
+        return null;
+    }
+
+    /// Expr.Visitor implementation
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if (expr.frameSlot >= 0) {
+            emit(SET_LOCAL, expr.name);
+            chunk.writeShort(expr.frameSlot, expr.name);
+        } else if (expr.depth >= 0) {
+            emit(SET_CAPTURED, expr.name);
+            chunk.writeShort(expr.heapDepth, expr.name);
+            chunk.writeShort(expr.slot, expr.name);
+        } else {
+            emit(SET_GLOBAL, expr.name);
+            chunk.writeShort(makeConstant(expr.name.lexeme), expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL:    emit(NOT_EQUAL, expr.operator); break;
+            case EQUAL_EQUAL:   emit(EQUAL, expr.operator); break;
+            case GREATER:       emit(GREATER, expr.operator); break;
+            case GREATER_EQUAL: emit(GREATER_EQUAL, expr.operator); break;
+            case LESS:          emit(LESS, expr.operator); break;
+            case LESS_EQUAL:    emit(LESS_EQUAL, expr.operator); break;
+            case MINUS:         emit(SUBTRACT, expr.operator); break;
+            case PLUS:          emit(ADD, expr.operator); break;
+            case SLASH:         emit(DIVIDE, expr.operator); break;
+            case STAR:          emit(MULTIPLY, expr.operator); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            compileInvoke(expr, (Expr.Get)expr.callee);
+        } else {
+            compileCall(expr, CALL);
+        }
+        return null;
+    }
+
+    // Leaves the receiver in the callee's place, see VM's INVOKE.
+    private void compileInvoke(Expr.Call expr, Expr.Get get) {
+        compile(get.object);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(INVOKE, get.name);
+        chunk.writeShort(propertyCache(getCaches, get.name), get.name);
+        chunk.write(expr.arguments.size(), get.name);
+        adjustStack(-expr.arguments.size());
+    }
+
+    private void compileCall(Expr.Call expr, byte op) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(op, expr.paren);
+        chunk.write(expr.arguments.size(), expr.paren);
+        adjustStack(-expr.arguments.size());
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emit(GET_PROPERTY, expr.name);
+        chunk.writeShort(propertyCache(getCaches, expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        emit(SET_PROPERTY, expr.name);
+        chunk.writeShort(propertyCache(setCaches, expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        emit(GET_INDEX, expr.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        emit(SET_INDEX, expr.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        emit(GET_CAPTURED, expr.keyword);
+        chunk.writeShort(expr.heapDepth - 1, expr.keyword);
+        chunk.writeShort(0, expr.keyword);
+        emit(GET_CAPTURED, expr.keyword);
+        chunk.writeShort(expr.heapDepth, expr.keyword);
+        chunk.writeShort(expr.slot, expr.keyword);
+        emit(GET_SUPER, expr.method);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        emit(GET_CAPTURED, expr.keyword);
+        chunk.writeShort(expr.heapDepth, expr.keyword);
+        chunk.writeShort(expr.slot, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(NIL, null);
+        } else if (expr.value == Boolean.TRUE) {
+            emit(TRUE, null);
+        } else if (expr.value == Boolean.FALSE) {
+            emit(FALSE, null);
+        } else {
+            emit(CONSTANT, null);
+            chunk.writeShort(makeConstant(expr.value), null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int endJump = emitJump(
+            expr.operator.type == TokenType.AND ? JUMP_IF_FALSE : JUMP_IF_TRUE, expr.operator);
+        emit(POP, expr.operator);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.frameSlot >= 0) {
+            emit(GET_LOCAL, expr.name);
+            chunk.writeShort(expr.frameSlot, expr.name);
+        } else if (expr.depth >= 0) {
+            emit(GET_CAPTURED, expr.name);
+            chunk.writeShort(expr.heapDepth, expr.name);
+            chunk.writeShort(expr.slot, expr.name);
+        } else {
+            emit(GET_GLOBAL, expr.name);
+            chunk.writeShort(makeConstant(expr.name.lexeme), expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case BANG:  emit(NOT, expr.operator); break;
+            case MINUS: emit(NEGATE, expr.operator); break;
+        }
+        return null;
+    }
+
+    /// Helpers
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(byte op, Token token) {
+        chunk.write(op, token);
+        adjustStack(stackEffect(op));
+    }
+
+    private void adjustStack(int effect) {
+        stackDepth += effect;
+        if (stackDepth > chunk.maxStack) chunk.maxStack = stackDepth;
+    }
+
+    // Net change of the stack height, CALL pops its arguments separately.
+    private static int stackEffect(byte op) {
+        switch (op) {
+            case CONSTANT: case NIL: case TRUE: case FALSE:
+            case GET_LOCAL: case GET_CAPTURED: case GET_GLOBAL: case CLOSURE: case CLASS:
+                return 1;
+            case POP: case DEFINE_LOCAL: case DEFINE_CAPTURED: case DEFINE_GLOBAL:
+            case EQUAL: case NOT_EQUAL: case GREATER: case GREATER_EQUAL:
+            case LESS: case LESS_EQUAL: case ADD: case SUBTRACT:
+            case MULTIPLY: case DIVIDE: case RETURN: case SET_PROPERTY: case GET_SUPER:
+            case GET_INDEX:
+                return -1;
+            case SET_INDEX:
+                return -2;
+            default:
+                return 0;
+        }
+    }
+
+    // Functions and classes are only ever declared in captured scopes.
+    private void defineVariable(Token name) {
+        if (scopeDepth == 0) {
+            emit(DEFINE_GLOBAL, name);
+            chunk.writeShort(makeConstant(name.lexeme), name);
+        } else {
+            emit(DEFINE_CAPTURED, name);
+        }
+    }
+
+    // Called right after the instruction that refers to the constant, whose
+    // token an overflowing pool is reported at.
+    private int makeConstant(Object value) {
+        int index = chunk.addConstant(value);
+        if (index > 0xffff) {
+            throw new RuntimeError(chunk.tokens[chunk.count - 1], "Too many constants in one chunk.");
+        }
+        return index;
+    }
+
+    private int propertyCache(Map<String, Integer> caches, Token name) {
+        Integer index = caches.get(name.lexeme);
+        if (index == null) {
+            index = makeConstant(new PropertyCache());
+            caches.put(name.lexeme, index);
+        }
+        return index;
+    }
+
+    private int emitJump(byte op, Token token) {
+        emit(op, token);
+        chunk.writeShort(0xffff, token);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            throw new RuntimeError(chunk.tokens[offset - 1], "Too much code to jump over.");
+        }
+        chunk.patchShort(offset, jump);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(LOOP, null);
+        int offset = chunk.count - loopStart + 2;
+        if (offset > 0xffff) {
+            throw new RuntimeError(chunk.tokens[loopStart], "Loop body too large.");
+        }
+        chunk.writeShort(offset, null);
+    }
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled sequence of bytecode with its constant pool. Each byte remembers
+// the token it was compiled from so runtime errors can report it, falling back
+// to the previous byte's token for instructions without one of their own.
+class Chunk {
+    byte[] code = new byte[64];
+    Token[] tokens = new Token[64];
+    Object[] constants;
+    int count = 0;
+    // Deepest the value stack gets while running this chunk.
+    int maxStack = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int value, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = (byte)value;
+        tokens[count] = token != null || count == 0 ? token : tokens[count - 1];
+        count++;
+    }
+
+    void writeShort(int value, Token token) {
+        write((value >> 8) & 0xff, token);
+        write(value & 0xff, token);
+    }
+
+    void patchShort(int offset, int value) {
+        code[offset] = (byte)((value >> 8) & 0xff);
+        code[offset + 1] = (byte)(value & 0xff);
+    }
+
+    // Numbers and strings are shared between uses, anything else gets a fresh
+    // entry, so the compiler shares PropertyCaches itself.
+    int addConstant(Object value) {
+        if (value instanceof Double || value instanceof String) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+            constantIndex.put(value, constantList.size());
+        }
+        constantList.add(value);
+        return constantList.size() - 1;
+    }
+
+    // Trims the buffers once compilation is done.
+    Chunk finish() {
+        code = Arrays.copyOf(code, count);
+        tokens = Arrays.copyOf(tokens, count);
+        constants = constantList.toArray();
+        return this;
+    }
+}
@@ -0,0 +1,334 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the class file format to emit the JIT's classes. Classes are
+// written as version 49 so the JVM verifies them by type inference and no
+// stack map frames have to be computed.
+class ClassFileWriter {
+    private static final int VERSION = 49;
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Opcodes used by the JIT.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int WIDE = 0xc4;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private final String className;
+    private final String superName;
+    private final int codeName;
+
+    ClassFileWriter(String className, String superName) {
+        this.className = className;
+        this.superName = superName;
+        this.codeName = utf8("Code");
+    }
+
+    /// Constant pool
+
+    int utf8(String value) {
+        Integer index = poolIndex.get("U" + value);
+        if (index != null) return index;
+        write(() -> {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        });
+        poolIndex.put("U" + value, poolCount);
+        return poolCount++;
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 7, name, -1);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry("M" + owner + "." + name + descriptor, 10, ownerIndex, nameAndType);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry("F" + owner + "." + name + descriptor, 9, ownerIndex, nameAndType);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return entry("N" + name + descriptor, 12, nameIndex, descriptorIndex);
+    }
+
+    private int entry(String key, int tag, int first, int second) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        write(() -> {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0) pool.writeShort(second);
+        });
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /// Methods
+
+    MethodWriter method(int access, String name, String descriptor, int argumentSlots) {
+        return new MethodWriter(access, utf8(name), utf8(descriptor), argumentSlots);
+    }
+
+    byte[] toByteArray() {
+        int thisIndex = classRef(className);
+        int superIndex = classRef(superName);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface PoolWrite {
+        void run() throws IOException;
+    }
+
+    private void write(PoolWrite write) {
+        try {
+            write.run();
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // A jump target. Jumps emitted before the label is placed are patched once
+    // its position is known.
+    static class Label {
+        private int position = -1;
+        private final List<int[]> fixups = new ArrayList<>();
+    }
+
+    // Emits the bytecode of one method, tracking the operand stack depth and
+    // the number of locals so the Code attribute can be sized.
+    class MethodWriter {
+        private final int access;
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private MethodWriter(int access, int nameIndex, int descriptorIndex, int argumentSlots) {
+            this.access = access;
+            this.nameIndex = nameIndex;
+            this.descriptorIndex = descriptorIndex;
+            this.maxLocals = argumentSlots;
+        }
+
+        int position() {
+            return length;
+        }
+
+        void op(int opcode, int stackEffect) {
+            writeByte(opcode);
+            adjust(stackEffect);
+        }
+
+        void pushNull() {
+            op(ACONST_NULL, 1);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                writeByte(value);
+            } else {
+                op(SIPUSH, 1);
+                writeShort(value);
+            }
+        }
+
+        void load(int local) {
+            localOp(ALOAD, local, 1);
+        }
+
+        void store(int local) {
+            localOp(ASTORE, local, -1);
+        }
+
+        private void localOp(int opcode, int local, int stackEffect) {
+            maxLocals = Math.max(maxLocals, local + 1);
+            if (local > 0xff) {
+                writeByte(WIDE);
+                op(opcode, stackEffect);
+                writeShort(local);
+            } else {
+                op(opcode, stackEffect);
+                writeByte(local);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int effect = returnSize(descriptor) - argumentSize(descriptor);
+            if (opcode != INVOKESTATIC) effect--;
+            op(opcode, effect);
+            writeShort(methodRef(owner, name, descriptor));
+        }
+
+        void getField(String owner, String name, String descriptor) {
+            op(GETFIELD, 0);
+            writeShort(fieldRef(owner, name, descriptor));
+        }
+
+        void newArray(String componentType) {
+            op(ANEWARRAY, 0);
+            writeShort(classRef(componentType));
+        }
+
+        void jump(int opcode, Label target) {
+            int at = position();
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (target.position >= 0) {
+                writeShort(target.position - at);
+            } else {
+                target.fixups.add(new int[] { at, position() });
+                writeShort(0);
+            }
+        }
+
+        void place(Label label) {
+            label.position = position();
+            for (int[] fixup : label.fixups) {
+                patchShort(fixup[1], label.position - fixup[0]);
+            }
+        }
+
+        // Code after an unconditional jump or return starts with a depth the
+        // writer cannot infer, so callers restore it explicitly.
+        void setStack(int depth) {
+            stack = depth;
+        }
+
+        int stack() {
+            return stack;
+        }
+
+        void finish() {
+            byte[] body = Arrays.copyOf(code, length);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(access);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+                out.writeShort(1); // attributes
+                out.writeShort(codeName);
+                out.writeInt(12 + body.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            } catch (IOException error) {
+                throw new IllegalStateException(error);
+            }
+            methods.add(bytes.toByteArray());
+        }
+
+        private void adjust(int effect) {
+            stack += effect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeByte(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)value;
+        }
+
+        private void writeShort(int value) {
+            writeByte(value >> 8);
+            writeByte(value);
+        }
+
+        private void patchShort(int offset, int value) {
+            code[offset] = (byte)(value >> 8);
+            code[offset + 1] = (byte)value;
+        }
+    }
+
+    // Descriptors used by the JIT only contain references, ints and booleans,
+    // which all take one slot.
+    private static int argumentSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            size++;
+            i++;
+        }
+        return size;
+    }
+
+    private static int returnSize(String descriptor) {
+        return descriptor.endsWith(")V") ? 0 : 1;
+    }
+}
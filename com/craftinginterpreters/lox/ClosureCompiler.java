@@ -0,0 +1,543 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns a resolved syntax tree into a tree of pre-built Java closures. Every
+// decision that only depends on the tree, like which operator a Binary applies
+// or where a variable lives, is made once here instead of on each evaluation.
+// The closures hold nothing of the context running them, which they are
+// handed with each environment, so one tree serves every LoxContext.
+class ClosureCompiler {
+    interface ExprNode {
+        Object eval(Interpreter interpreter, Environment environment);
+    }
+
+    interface StmtNode {
+        // Returns null when control falls off the end of the statement.
+        Completion exec(Interpreter interpreter, Environment environment);
+    }
+
+    // Mirrors the Resolver's scope stack: zero means top-level code.
+    private int scopeDepth = 0;
+
+    private ClosureCompiler() {}
+
+    static StmtNode[] compile(List<Stmt> statements) {
+        return new ClosureCompiler().compileAll(statements);
+    }
+
+    static void interpret(StmtNode[] program, Interpreter interpreter) {
+        try {
+            for (StmtNode statement : program) {
+                statement.exec(interpreter, interpreter.globals);
+            }
+        } catch (RuntimeError error) {
+            interpreter.reporter.runtimeError(error);
+        }
+    }
+
+    private StmtNode[] compileAll(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    // Runs statements in order until one completes abruptly.
+    static Completion execAll(StmtNode[] statements, Interpreter interpreter,
+                              Environment environment) {
+        for (StmtNode statement : statements) {
+            Completion completion = statement.exec(interpreter, environment);
+            if (completion != null) return completion;
+        }
+        return null;
+    }
+
+    /// Statements
+
+    private StmtNode compile(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) {
+            ExprNode expression = compile(((Stmt.Expression)stmt).expression);
+            return (interpreter, environment) -> {
+                expression.eval(interpreter, environment);
+                return null;
+            };
+        }
+        if (stmt instanceof Stmt.Var) return compileVar((Stmt.Var)stmt);
+        if (stmt instanceof Stmt.Block) return compileBlock((Stmt.Block)stmt);
+        if (stmt instanceof Stmt.If) return compileIf((Stmt.If)stmt);
+        if (stmt instanceof Stmt.While) {
+            Stmt.While loop = (Stmt.While)stmt;
+            return compileLoop(loop.condition, loop.body, null);
+        }
+        if (stmt instanceof Stmt.For) {
+            Stmt.For loop = (Stmt.For)stmt;
+            return compileLoop(loop.condition, loop.body, loop.increment);
+        }
+        if (stmt instanceof Stmt.Function) return compileFunction((Stmt.Function)stmt);
+        if (stmt instanceof Stmt.Return) return compileReturn((Stmt.Return)stmt);
+        if (stmt instanceof Stmt.Break) return (interpreter, environment) -> Completion.BREAK;
+        if (stmt instanceof Stmt.Continue) return (interpreter, environment) -> Completion.CONTINUE;
+        if (stmt instanceof Stmt.Class) return compileClass((Stmt.Class)stmt);
+        throw new IllegalArgumentException("Unknown statement " + stmt);
+    }
+
+    private StmtNode compileVar(Stmt.Var stmt) {
+        ExprNode initializer = stmt.initializer == null
+            ? (interpreter, environment) -> null
+            : compile(stmt.initializer);
+        return define(stmt.name, initializer);
+    }
+
+    private StmtNode define(Token name, ExprNode value) {
+        if (scopeDepth == 0) {
+            int global = name.global;
+            return (interpreter, environment) -> {
+                interpreter.globals.define(global, value.eval(interpreter, environment));
+                return null;
+            };
+        }
+        return (interpreter, environment) -> {
+            environment.define(value.eval(interpreter, environment));
+            return null;
+        };
+    }
+
+    private StmtNode compileBlock(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            StmtNode[] body = compileAll(stmt.statements);
+            return (interpreter, environment) -> execAll(body, interpreter, environment);
+        }
+
+        scopeDepth++;
+        StmtNode[] body = compileAll(stmt.statements);
+        scopeDepth--;
+        int slotCount = stmt.slotCount;
+        return (interpreter, environment) -> {
+            return execAll(body, interpreter, new Environment(environment, slotCount));
+        };
+    }
+
+    private StmtNode compileIf(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return (interpreter, environment) -> {
+                if (Interpreter.isTruthy(condition.eval(interpreter, environment))) {
+                    return thenBranch.exec(interpreter, environment);
+                }
+                return null;
+            };
+        }
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return (interpreter, environment) -> {
+            if (Interpreter.isTruthy(condition.eval(interpreter, environment))) {
+                return thenBranch.exec(interpreter, environment);
+            }
+            return elseBranch.exec(interpreter, environment);
+        };
+    }
+
+    private StmtNode compileLoop(Expr conditionExpr, Stmt bodyStmt, Expr incrementExpr) {
+        ExprNode condition = compile(conditionExpr);
+        StmtNode body = compile(bodyStmt);
+        ExprNode increment = incrementExpr == null ? null : compile(incrementExpr);
+        return (interpreter, environment) -> {
+            while (Interpreter.isTruthy(condition.eval(interpreter, environment))) {
+                Completion completion = body.exec(interpreter, environment);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+                if (increment != null) increment.eval(interpreter, environment);
+            }
+            return null;
+        };
+    }
+
+    private StmtNode compileFunction(Stmt.Function stmt) {
+        scopeDepth++;
+        StmtNode[] body = compileAll(stmt.body);
+        scopeDepth--;
+        return define(stmt.name, (interpreter, environment) -> new ClosureFunction(stmt, body, environment));
+    }
+
+    private StmtNode compileClass(Stmt.Class stmt) {
+        ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+        Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+
+        List<Stmt.Function> declarations = stmt.methods;
+        StmtNode[][] bodies = new StmtNode[declarations.size()][];
+        // Method bodies sit inside the scopes that bind 'super' and 'this'.
+        int depth = superclass == null ? 2 : 3;
+        scopeDepth += depth;
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = compileAll(declarations.get(i).body);
+        }
+        scopeDepth -= depth;
+
+        String name = stmt.name.lexeme;
+        return define(stmt.name, (interpreter, environment) -> {
+            LoxClass parent = null;
+            Environment closure = environment;
+            if (superclass != null) {
+                Object value = superclass.eval(interpreter, environment);
+                if (!(value instanceof LoxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                parent = (LoxClass)value;
+                closure = new Environment(environment, 1);
+                closure.define(parent);
+            }
+
+            Map<String, LoxCallable> methods = new HashMap<>();
+            for (int i = 0; i < bodies.length; i++) {
+                Stmt.Function method = declarations.get(i);
+                methods.put(method.name.lexeme, new ClosureFunction(method, bodies[i], closure));
+            }
+            return new LoxClass(name, parent, methods);
+        });
+    }
+
+    private StmtNode compileReturn(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return (interpreter, environment) -> {
+                interpreter.returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+        if (stmt.tailCall) return compileTailCall((Expr.Call)stmt.value);
+
+        ExprNode value = compile(stmt.value);
+        return (interpreter, environment) -> {
+            interpreter.returnValue = value.eval(interpreter, environment);
+            return Completion.RETURN;
+        };
+    }
+
+    // Leaves calls of compiled functions for the calling ClosureFunction to
+    // run once this one has returned, see LoxFunction.call().
+    private StmtNode compileTailCall(Expr.Call expr) {
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] arguments = compileArguments(expr);
+        Token paren = expr.paren;
+        InlineCache cache = new InlineCache();
+
+        return (interpreter, environment) -> {
+            Object target = callee.eval(interpreter, environment);
+            Object[] values = evalArguments(arguments, interpreter, environment);
+            LoxCallable function = cache.resolve(target, values.length, paren);
+            if (function instanceof ClosureFunction) {
+                interpreter.tailCallee = function;
+                interpreter.tailArguments = values;
+                interpreter.returnValue = null;
+            } else {
+                interpreter.returnValue = call(function, interpreter, values, paren);
+            }
+            return Completion.RETURN;
+        };
+    }
+
+    /// Expressions
+
+    private ExprNode compile(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            return (interpreter, environment) -> value;
+        }
+        if (expr instanceof Expr.Grouping) return compile(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Variable) return compileVariable((Expr.Variable)expr);
+        if (expr instanceof Expr.Assign) return compileAssign((Expr.Assign)expr);
+        if (expr instanceof Expr.Binary) return compileBinary((Expr.Binary)expr);
+        if (expr instanceof Expr.Unary) return compileUnary((Expr.Unary)expr);
+        if (expr instanceof Expr.Logical) return compileLogical((Expr.Logical)expr);
+        if (expr instanceof Expr.Call) return compileCall((Expr.Call)expr);
+        if (expr instanceof Expr.Get) return compileGet((Expr.Get)expr);
+        if (expr instanceof Expr.Set) return compileSet((Expr.Set)expr);
+        if (expr instanceof Expr.Index) return compileIndex((Expr.Index)expr);
+        if (expr instanceof Expr.SetIndex) return compileSetIndex((Expr.SetIndex)expr);
+        if (expr instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr;
+            int depth = superExpr.depth;
+            int slot = superExpr.slot;
+            Token method = superExpr.method;
+            return (interpreter, environment) -> {
+                LoxClass superclass = (LoxClass)environment.getAt(depth, slot);
+                LoxInstance instance = (LoxInstance)environment.getAt(depth - 1, 0);
+                return superclass.bindSuper(instance, method);
+            };
+        }
+        if (expr instanceof Expr.This) {
+            int depth = ((Expr.This)expr).depth;
+            int slot = ((Expr.This)expr).slot;
+            return (interpreter, environment) -> environment.getAt(depth, slot);
+        }
+        throw new IllegalArgumentException("Unknown expression " + expr);
+    }
+
+    private ExprNode compileVariable(Expr.Variable expr) {
+        int slot = expr.slot;
+        switch (expr.depth) {
+            case -1: {
+                Token name = expr.name;
+                return (interpreter, environment) -> interpreter.globals.get(name);
+            }
+            case 0:
+                return (interpreter, environment) -> environment.slots[slot];
+            case 1:
+                return (interpreter, environment) -> environment.enclosing.slots[slot];
+            default: {
+                int depth = expr.depth;
+                return (interpreter, environment) -> environment.getAt(depth, slot);
+            }
+        }
+    }
+
+    private ExprNode compileAssign(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        int slot = expr.slot;
+        switch (expr.depth) {
+            case -1: {
+                Token name = expr.name;
+                return (interpreter, environment) -> {
+                    Object result = value.eval(interpreter, environment);
+                    interpreter.globals.assign(name, result);
+                    return result;
+                };
+            }
+            case 0:
+                return (interpreter, environment) -> environment.slots[slot] = value.eval(interpreter, environment);
+            default: {
+                int depth = expr.depth;
+                return (interpreter, environment) -> {
+                    Object result = value.eval(interpreter, environment);
+                    environment.assignAt(depth, slot, result);
+                    return result;
+                };
+            }
+        }
+    }
+
+    private ExprNode compileBinary(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG_EQUAL:
+                return (interpreter, environment) -> !Interpreter.isEqual(left.eval(interpreter, environment), right.eval(interpreter, environment));
+            case EQUAL_EQUAL:
+                return (interpreter, environment) -> Interpreter.isEqual(left.eval(interpreter, environment), right.eval(interpreter, environment));
+            case GREATER:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l > (double)r;
+                };
+            case GREATER_EQUAL:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l >= (double)r;
+                };
+            case LESS:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l < (double)r;
+                };
+            case LESS_EQUAL:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l <= (double)r;
+                };
+            case MINUS:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l - (double)r;
+                };
+            case PLUS:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    if (l instanceof Double && r instanceof Double) return (double)l + (double)r;
+                    if (l instanceof CharSequence || r instanceof CharSequence) return Rope.concat(l, r);
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                };
+            case SLASH:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l / (double)r;
+                };
+            case STAR:
+                return (interpreter, environment) -> {
+                    Object l = left.eval(interpreter, environment);
+                    Object r = right.eval(interpreter, environment);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l * (double)r;
+                };
+        }
+        throw new IllegalArgumentException("Unknown binary operator " + operator.lexeme);
+    }
+
+    private ExprNode compileUnary(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        if (operator.type == TokenType.BANG) {
+            return (interpreter, environment) -> !Interpreter.isTruthy(right.eval(interpreter, environment));
+        }
+        return (interpreter, environment) -> {
+            Object value = right.eval(interpreter, environment);
+            if (!(value instanceof Double)) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+            return -(double)value;
+        };
+    }
+
+    private ExprNode compileLogical(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if (expr.operator.type == TokenType.AND) {
+            return (interpreter, environment) -> {
+                Object value = left.eval(interpreter, environment);
+                return Interpreter.isTruthy(value) ? right.eval(interpreter, environment) : value;
+            };
+        }
+        return (interpreter, environment) -> {
+            Object value = left.eval(interpreter, environment);
+            return Interpreter.isTruthy(value) ? value : right.eval(interpreter, environment);
+        };
+    }
+
+    private ExprNode compileCall(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) return compileInvoke(expr, (Expr.Get)expr.callee);
+
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] arguments = compileArguments(expr);
+        Token paren = expr.paren;
+        InlineCache cache = new InlineCache();
+
+        return (interpreter, environment) -> {
+            Object target = callee.eval(interpreter, environment);
+            Object[] values = evalArguments(arguments, interpreter, environment);
+
+            LoxCallable function = cache.resolve(target, values.length, paren);
+            return call(function, interpreter, values, paren);
+        };
+    }
+
+    // Calls a method right off the instance, see Interpreter.invokeMethod().
+    private ExprNode compileInvoke(Expr.Call expr, Expr.Get get) {
+        ExprNode object = compile(get.object);
+        ExprNode[] arguments = compileArguments(expr);
+        Token name = get.name;
+        Token paren = expr.paren;
+        PropertyCache property = new PropertyCache();
+        InlineCache cache = new InlineCache();
+
+        return (interpreter, environment) -> {
+            Object receiver = object.eval(interpreter, environment);
+            LoxCallable method = property.method(receiver, name);
+            if (method != null) {
+                Object[] values = evalArguments(arguments, interpreter, environment);
+                InlineCache.checkArity(method, values.length, paren);
+                return method.callMethod(interpreter, (LoxInstance)receiver, values);
+            }
+
+            Object target = property.get(receiver, name);
+            Object[] values = evalArguments(arguments, interpreter, environment);
+            LoxCallable function = cache.resolve(target, values.length, paren);
+            return call(function, interpreter, values, paren);
+        };
+    }
+
+    private ExprNode compileGet(Expr.Get expr) {
+        ExprNode object = compile(expr.object);
+        Token name = expr.name;
+        PropertyCache cache = new PropertyCache();
+        return (interpreter, environment) -> cache.get(object.eval(interpreter, environment), name);
+    }
+
+    private ExprNode compileSet(Expr.Set expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        PropertyCache cache = new PropertyCache();
+        return (interpreter, environment) -> {
+            Object target = object.eval(interpreter, environment);
+            Object result = value.eval(interpreter, environment);
+            cache.set(target, name, result);
+            return result;
+        };
+    }
+
+    private ExprNode compileIndex(Expr.Index expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode index = compile(expr.index);
+        Token bracket = expr.bracket;
+        return (interpreter, environment) -> {
+            Object target = object.eval(interpreter, environment);
+            return Subscript.get(target, index.eval(interpreter, environment), bracket);
+        };
+    }
+
+    private ExprNode compileSetIndex(Expr.SetIndex expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode index = compile(expr.index);
+        ExprNode value = compile(expr.value);
+        Token bracket = expr.bracket;
+        return (interpreter, environment) -> {
+            Object target = object.eval(interpreter, environment);
+            Object position = index.eval(interpreter, environment);
+            Object result = value.eval(interpreter, environment);
+            Subscript.set(target, position, result, bracket);
+            return result;
+        };
+    }
+
+    /// Helpers
+
+    private ExprNode[] compileArguments(Expr.Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    private static Object[] evalArguments(ExprNode[] arguments, Interpreter interpreter,
+                                          Environment environment) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments[i].eval(interpreter, environment);
+        }
+        return values;
+    }
+
+    // Calls function, reporting what a native throws at the call's paren.
+    private static Object call(LoxCallable function, Interpreter interpreter,
+                                     Object[] values, Token paren) {
+        try {
+            return function.call(interpreter, Arrays.asList(values));
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be a numbers.");
+    }
+}
@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class ClosureFunction implements LoxCallable {
+    private final Stmt.Function declaration;
+    private final ClosureCompiler.StmtNode[] body;
+    private final Environment closure;
+
+    ClosureFunction(Stmt.Function declaration, ClosureCompiler.StmtNode[] body,
+        Environment closure) {
+        this.declaration = declaration;
+        this.body = body;
+        this.closure = closure;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return run(interpreter, this, closure, arguments.toArray());
+    }
+
+    @Override
+    public Object callMethod(Interpreter interpreter, LoxInstance instance, Object[] arguments) {
+        return run(interpreter, this, bound(instance), arguments);
+    }
+
+    // Runs the function in the given closure, then the chain of tail calls
+    // it ends with, see LoxFunction.run().
+    private static Object run(Interpreter interpreter, ClosureFunction function,
+        Environment closure, Object[] values) {
+        for (;;) {
+            Environment environment = new Environment(closure, function.declaration.slotCount);
+            for (Object argument : values) {
+                environment.define(argument);
+            }
+            Object value = null;
+            if (ClosureCompiler.execAll(function.body, interpreter, environment) == Completion.RETURN) {
+                value = interpreter.returnValue;
+                interpreter.returnValue = null;
+            }
+
+            if (interpreter.tailCallee == null) return value;
+            function = (ClosureFunction)interpreter.tailCallee;
+            closure = function.closure;
+            values = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+        }
+    }
+
+    @Override
+    public LoxCallable bind(LoxInstance instance) {
+        return new ClosureFunction(declaration, body, bound(instance));
+    }
+
+    private Environment bound(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(instance);
+        return environment;
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// How a statement finished when it did not simply fall through to the next
+// one. Executors return null for normal completion and pass these outward
+// until the enclosing loop or function handles them.
+enum Completion {
+    BREAK,
+    CONTINUE,
+    RETURN
+}
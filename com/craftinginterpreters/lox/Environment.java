@@ -1,26 +1,103 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class Environment {
+    private static final int DEFAULT_CAPACITY = 4;
+    // Marks a slot whose value is the unboxed number at the same index of
+    // numbers, which is only allocated once the frame holds one.
+    static final Object UNBOXED = new Object();
+    // Marks a global that has not been defined.
+    private static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment is keyed by name, with the values of
+    // globals indexed by their Token.global in the engine's names. Every
+    // local scope is a frame of slots whose indices are assigned by the
+    // Resolver.
+    private final Symbols names;
+    private Object[] values;
+    // Set while values is a snapshot that restore() may bring back, which
+    // is copied before it is written.
+    private boolean shared = false;
+    Object[] slots;
+    double[] numbers;
+    private int slotCount = 0;
 
-    Environment() {
+    Environment(Symbols names) {
         enclosing = null;
+        this.names = names;
+        values = new Object[0];
+        slots = null;
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, DEFAULT_CAPACITY);
+    }
+
+    Environment(Environment enclosing, int capacity) {
         this.enclosing = enclosing;
+        names = null;
+        values = null;
+        slots = new Object[Math.max(capacity, 1)];
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        define(names.intern(name), value);
+    }
+
+    void define(int global, Object value) {
+        if (global >= values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(names.count(), global + 1));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+            shared = false;
+        } else if (shared) {
+            unshare();
+        }
+        values[global] = value;
+    }
+
+    // The values of the globals as they are now, for restore() to go back
+    // to. Neither call copies them; the first write after either does.
+    Object[] snapshot() {
+        shared = true;
+        return values;
+    }
+
+    void restore(Object[] snapshot) {
+        values = snapshot;
+        shared = true;
+    }
+
+    private void unshare() {
+        values = values.clone();
+        shared = false;
+    }
+
+    // Locals are defined in the same order the Resolver declared them, so the
+    // next free slot is always the one it assigned.
+    void define(Object value) {
+        if (slotCount == slots.length) grow();
+        slots[slotCount++] = value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    void defineNumber(double value) {
+        if (slotCount == slots.length) grow();
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slotCount] = value;
+        slots[slotCount++] = UNBOXED;
+    }
+
+    private void grow() {
+        slots = Arrays.copyOf(slots, slotCount * 2);
+        if (numbers != null) numbers = Arrays.copyOf(numbers, slotCount * 2);
+    }
+
+    Object getAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        return value == UNBOXED ? (Object)environment.numbers[slot] : value;
     }
 
     Environment ancestor(int distance) {
@@ -30,32 +107,42 @@ class Environment {
         return environment;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    void assignNumberAt(int distance, int slot, double value) {
+        Environment environment = ancestor(distance);
+        if (environment.numbers == null) environment.numbers = new double[environment.slots.length];
+        environment.numbers[slot] = value;
+        environment.slots[slot] = UNBOXED;
+    }
+
+    // Value of a global, null when it is not defined.
+    Object lookup(String name) {
+        int global = names.find(name);
+        if (global >= 0 && global < values.length && values[global] != UNDEFINED) {
+            return values[global];
         }
+        return null;
+    }
 
-        if (enclosing != null) return enclosing.get(name);
+    Object get(Token name) {
+        if (name.global < values.length && values[name.global] != UNDEFINED) {
+            return values[name.global];
+        }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        if (name.global < values.length && values[name.global] != UNDEFINED) {
+            if (shared) unshare();
+            values[name.global] = value;
             return;
         }
 
         throw new RuntimeError(name,
             "Undefiend variable '" + name.lexeme + "'.");
     }
-}
\ No newline at end of file
+}
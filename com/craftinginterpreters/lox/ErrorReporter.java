@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// Prints the errors of compiling a program, or of running programs in one
+// LoxContext, and remembers whether there were any.
+class ErrorReporter {
+    private PrintStream err;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    void redirect(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        err.println(
+            "[line " + line + "] Error" + where + ": " + message
+        );
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error) {
+        if (error.token == null) {
+            err.println(error.getMessage());
+        } else {
+            err.println(error.getMessage() +
+            "\n[line: " + error.token.line + "]");
+        }
+        hadRuntimeError = true;
+    }
+}
@@ -9,9 +9,15 @@ abstract class Expr {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
+    R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    R visitSetExpr(Set expr);
+    R visitSetIndexExpr(SetIndex expr);
+    R visitSuperExpr(Super expr);
+    R visitThisExpr(This expr);
     R visitVariableExpr(Variable expr);
     R visitUnaryExpr(Unary expr);
  }
@@ -29,6 +35,11 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    int slot = -1;
+    int frameSlot = -1;
+    int heapDepth = -1;
  }
 
  static class Binary extends Expr {
@@ -46,6 +57,8 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+
+    int specialization = 0;
  }
 
  static class Call extends Expr {
@@ -63,6 +76,25 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+
+    InlineCache cache = new InlineCache();
+ }
+
+ static class Get extends Expr {
+    Get(Expr object, Token name) {
+        this.object = object;
+        this.name = name;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitGetExpr(this);
+    }
+
+    final Expr object;
+    final Token name;
+
+    PropertyCache cache = new PropertyCache();
  }
 
  static class Grouping extends Expr {
@@ -78,6 +110,23 @@ abstract class Expr {
     final Expr expression;
  }
 
+ static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+        this.object = object;
+        this.bracket = bracket;
+        this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+ }
+
  static class Literal extends Expr {
     Literal(Object value) {
         this.value = value;
@@ -108,6 +157,80 @@ abstract class Expr {
     final Expr right;
  }
 
+ static class Set extends Expr {
+    Set(Expr object, Token name, Expr value) {
+        this.object = object;
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitSetExpr(this);
+    }
+
+    final Expr object;
+    final Token name;
+    final Expr value;
+
+    PropertyCache cache = new PropertyCache();
+ }
+
+ static class SetIndex extends Expr {
+    SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+        this.object = object;
+        this.bracket = bracket;
+        this.index = index;
+        this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitSetIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+ }
+
+ static class Super extends Expr {
+    Super(Token keyword, Token method) {
+        this.keyword = keyword;
+        this.method = method;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitSuperExpr(this);
+    }
+
+    final Token keyword;
+    final Token method;
+
+    int depth = -1;
+    int slot = -1;
+    int heapDepth = -1;
+ }
+
+ static class This extends Expr {
+    This(Token keyword) {
+        this.keyword = keyword;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitThisExpr(this);
+    }
+
+    final Token keyword;
+
+    int depth = -1;
+    int slot = -1;
+    int heapDepth = -1;
+ }
+
  static class Variable extends Expr {
     Variable(Token name) {
         this.name = name;
@@ -119,6 +242,11 @@ abstract class Expr {
     }
 
     final Token name;
+
+    int depth = -1;
+    int slot = -1;
+    int frameSlot = -1;
+    int heapDepth = -1;
  }
 
  static class Unary extends Expr {
@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox;
+
+// The compiled, environment-independent part of a function. The VM pairs it
+// with the environment it was declared in to produce a VMFunction.
+class FunctionProto {
+    final String name;
+    final int arity;
+    // Whether a call puts the parameters in an Environment of slotCount
+    // slots, which the function's closures capture. They stay in the frame
+    // where the caller pushed them otherwise.
+    final boolean captured;
+    final int slotCount;
+    // Stack slots a call reserves for locals, the parameters included.
+    final int frameSize;
+    final Chunk chunk;
+
+    FunctionProto(String name, int arity, boolean captured, int slotCount,
+                  int frameSize, Chunk chunk) {
+        this.name = name;
+        this.arity = arity;
+        this.captured = captured;
+        this.slotCount = slotCount;
+        this.frameSize = frameSize;
+        this.chunk = chunk;
+    }
+}
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Remembers the callees a call site has already checked. A site that keeps
+// calling the same few functions gets each one back after an identity
+// comparison, without the type and arity checks. Once a site has seen more
+// than LIMIT callees it is megamorphic and always takes the slow path.
+//
+// Entries keep their functions, and so their closures, alive for as long as
+// the syntax tree is.
+//
+// Contexts running the same program share the cache. Recording a callee
+// publishes a fresh array instead of writing into the one other threads may
+// be scanning, so a racing thread misses at worst and never sees a callee
+// that was not checked.
+class InlineCache {
+    static final int LIMIT = 4;
+
+    private static final Object[] EMPTY = new Object[0];
+    // Holds no callees, so lookups on a megamorphic cache miss.
+    private static final Object[] MEGAMORPHIC = new Object[0];
+
+    // Callees in the order they were seen, checked first to last since most
+    // sites only ever see one.
+    private volatile Object[] seen = EMPTY;
+
+    LoxCallable resolve(Object callee, int argumentCount, Token paren) {
+        Object[] callees = seen;
+        for (int i = 0; i < callees.length; i++) {
+            if (callees[i] == callee) return (LoxCallable)callee;
+        }
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(function, argumentCount, paren);
+        record(callees, function);
+        return function;
+    }
+
+    static void checkArity(LoxCallable function, int argumentCount, Token paren) {
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() +
+                " arguments but got " + argumentCount + ".");
+        }
+    }
+
+    private void record(Object[] callees, LoxCallable function) {
+        if (callees == MEGAMORPHIC) return;
+        if (callees.length == LIMIT) {
+            seen = MEGAMORPHIC;
+            return;
+        }
+        Object[] grown = Arrays.copyOf(callees, callees.length + 1);
+        grown[callees.length] = function;
+        seen = grown;
+    }
+}
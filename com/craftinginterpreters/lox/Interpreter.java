@@ -1,29 +1,86 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import com.craftinginterpreters.lox.native_functions.*;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+
+    // Type feedback states recorded in Expr.Binary.specialization.
+    private static final int UNINITIALIZED = 0;
+    private static final int GENERIC = 1;
+    private static final int NUMBER_ADD = 2;
+    private static final int NUMBER_SUBTRACT = 3;
+    private static final int NUMBER_MULTIPLY = 4;
+    private static final int NUMBER_DIVIDE = 5;
+    private static final int NUMBER_GREATER = 6;
+    private static final int NUMBER_GREATER_EQUAL = 7;
+    private static final int NUMBER_LESS = 8;
+    private static final int NUMBER_LESS_EQUAL = 9;
+    private static final int STRING_CONCAT = 10;
+
+    // Thrown by evaluateNumber() when the value turns out not to be a number,
+    // so the caller can carry on with it without evaluating anything twice.
+    private static class NotANumber extends RuntimeException {
+        final Object value;
+
+        NotANumber(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
 
-    final Environment globals = new Environment();
-    private Environment curEnvironment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    // Output and errors of the LoxContext this interpreter belongs to.
+    private PrintStream out;
+    final ErrorReporter reporter;
+    private Environment curEnvironment;
+    // Locals of scopes no closure can capture, see Resolver. A frame starts
+    // at fp and everything from top on is free. Like Environment, a slot
+    // holding UNBOXED keeps its number in numberStack.
+    private Object[] stack = new Object[256];
+    private double[] numberStack = new double[256];
+    private int fp = 0;
+    private int top = 0;
+    // Compiles hot functions, null when the JIT is disabled.
+    Jit jit = new Jit(Jit.DEFAULT_THRESHOLD);
+    // Declaration of the function being interpreted, for counting back-edges.
+    Stmt.Function currentFunction = null;
+    // Value of the last return statement, read by LoxFunction once the body
+    // completes with Completion.RETURN.
+    Object returnValue = null;
+    // Call made by the last return statement in tail position, which the
+    // calling LoxFunction (or ClosureFunction) runs once the current call has
+    // unwound.
+    LoxCallable tailCallee = null;
+    Object[] tailArguments = null;
+
+    Interpreter(PrintStream out, ErrorReporter reporter, Symbols globalNames) {
+        this.out = out;
+        this.reporter = reporter;
+        this.globals = new Environment(globalNames);
+        this.curEnvironment = globals;
+        Natives.installed().defineAll(globals);
+    }
 
-    Interpreter() {
-        globals.define("clock", new Clock());
-        globals.define("print", new Print());
+    // Where natives like print() write.
+    public PrintStream out() {
+        return out;
     }
-    
+
+    void redirect(PrintStream out) {
+        this.out = out;
+    }
+
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
         }
     }
 
@@ -31,9 +88,117 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        // Read once, since another context running the same tree may
+        // despecialize the site at any time.
+        int specialization = expr.specialization;
+        // Numeric sites evaluate their operands without boxing them.
+        if (specialization >= NUMBER_ADD && specialization <= NUMBER_LESS_EQUAL) {
+            try {
+                if (specialization <= NUMBER_DIVIDE) return numberBinary(expr, specialization);
+                return compareNumbers(expr, specialization);
+            } catch (NotANumber mismatch) {
+                return mismatch.value;
+            }
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
+        // Fast paths for sites that have only seen one kind of operand so far.
+        switch (specialization) {
+            case STRING_CONCAT:
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return Rope.concat((CharSequence)left, (CharSequence)right);
+                }
+                break;
+            case GENERIC:
+                return genericBinary(expr, left, right);
+        }
+
+        // First evaluation, or the operands no longer match the specialization.
+        expr.specialization = specialize(expr, left, right);
+        return genericBinary(expr, left, right);
+    }
+
+    // Arithmetic at a site specialized for numbers. An operand that is not a
+    // number despecializes the site and the generic result is thrown back.
+    // The caller passes the specialization it read, since evaluating the
+    // operands may despecialize this site.
+    private double numberBinary(Expr.Binary expr, int specialization) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (NotANumber mismatch) {
+            throw despecialize(expr, mismatch.value, evaluate(expr.right));
+        }
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (NotANumber mismatch) {
+            throw despecialize(expr, left, mismatch.value);
+        }
+
+        switch (specialization) {
+            case NUMBER_ADD: return left + right;
+            case NUMBER_SUBTRACT: return left - right;
+            case NUMBER_MULTIPLY: return left * right;
+            case NUMBER_DIVIDE: return left / right;
+            default: throw new NotANumber(genericBinary(expr, left, right));
+        }
+    }
+
+    private boolean compareNumbers(Expr.Binary expr, int specialization) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (NotANumber mismatch) {
+            throw despecialize(expr, mismatch.value, evaluate(expr.right));
+        }
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (NotANumber mismatch) {
+            throw despecialize(expr, left, mismatch.value);
+        }
+
+        switch (specialization) {
+            case NUMBER_GREATER: return left > right;
+            case NUMBER_GREATER_EQUAL: return left >= right;
+            case NUMBER_LESS: return left < right;
+            case NUMBER_LESS_EQUAL: return left <= right;
+            default: throw new NotANumber(genericBinary(expr, left, right));
+        }
+    }
+
+    private NotANumber despecialize(Expr.Binary expr, Object left, Object right) {
+        expr.specialization = GENERIC;
+        return new NotANumber(genericBinary(expr, left, right));
+    }
+
+    // Picks the fast path for the operands a site sees on its first evaluation.
+    // A site whose guard fails later stays generic rather than flip-flopping.
+    private int specialize(Expr.Binary expr, Object left, Object right) {
+        if (expr.specialization != UNINITIALIZED) return GENERIC;
+
+        if (left instanceof Double && right instanceof Double) {
+            switch (expr.operator.type) {
+                case PLUS: return NUMBER_ADD;
+                case MINUS: return NUMBER_SUBTRACT;
+                case STAR: return NUMBER_MULTIPLY;
+                case SLASH: return NUMBER_DIVIDE;
+                case GREATER: return NUMBER_GREATER;
+                case GREATER_EQUAL: return NUMBER_GREATER_EQUAL;
+                case LESS: return NUMBER_LESS;
+                case LESS_EQUAL: return NUMBER_LESS_EQUAL;
+            }
+        } else if (left instanceof CharSequence && right instanceof CharSequence &&
+            expr.operator.type == TokenType.PLUS) {
+            return STRING_CONCAT;
+        }
+        return GENERIC;
+    }
+
+    private Object genericBinary(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
             case BANG_EQUAL: 
                 return !isEqual(left, right);
@@ -61,9 +226,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case PLUS:
                 if (left instanceof Double && right instanceof Double)
                     return (double)left + (double)right;
-                else if (left instanceof String || right instanceof String)
+                else if (left instanceof CharSequence || right instanceof CharSequence)
                     try {
-                        return left.toString() + right.toString();
+                        return Rope.concat(left, right);
                     } catch (ClassCastException error) {
                         throw new RuntimeError(expr.operator, "Every operand must be castable to a string.");    
                     }
@@ -81,24 +246,172 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            LoxCallable method = get.cache.method(object, get.name);
+            if (method != null) return invokeMethod(expr, (LoxInstance)object, method);
+            callee = get.cache.get(object, get.name);
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        try {
+            // Calls with few arguments pass them one by one instead of in a list.
+            List<Expr> operands = expr.arguments;
+            switch (operands.size()) {
+                case 0:
+                    return expr.cache.resolve(callee, 0, expr.paren).call0(this);
+                case 1: {
+                    Object a = evaluate(operands.get(0));
+                    return expr.cache.resolve(callee, 1, expr.paren).call1(this, a);
+                }
+                case 2: {
+                    Object a = evaluate(operands.get(0));
+                    Object b = evaluate(operands.get(1));
+                    return expr.cache.resolve(callee, 2, expr.paren).call2(this, a, b);
+                }
+                case 3: {
+                    Object a = evaluate(operands.get(0));
+                    Object b = evaluate(operands.get(1));
+                    Object c = evaluate(operands.get(2));
+                    return expr.cache.resolve(callee, 3, expr.paren).call3(this, a, b, c);
+                }
+                case 4: {
+                    Object a = evaluate(operands.get(0));
+                    Object b = evaluate(operands.get(1));
+                    Object c = evaluate(operands.get(2));
+                    Object d = evaluate(operands.get(3));
+                    return expr.cache.resolve(callee, 4, expr.paren).call4(this, a, b, c, d);
+                }
+            }
+
+            Object[] arguments = evaluateArguments(expr);
+            LoxCallable function = expr.cache.resolve(callee, arguments.length, expr.paren);
+            return function.call(this, Arrays.asList(arguments));
+        } catch (NativeError error) {
+            throw error.at(expr.paren);
+        }
+    }
+
+    // Calls a method right off the instance, without the bound method that
+    // evaluating the Get would allocate.
+    private Object invokeMethod(Expr.Call expr, LoxInstance instance, LoxCallable method) {
+        Object[] arguments = evaluateArguments(expr);
+        InlineCache.checkArity(method, arguments.length, expr.paren);
+        return method.callMethod(this, instance, arguments);
+    }
+
+    private Object[] evaluateArguments(Expr.Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        return expr.cache.get(evaluate(expr.object), expr.name);
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        Object object = evaluate(expr.object);
+        Object value = evaluate(expr.value);
+        expr.cache.set(object, expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        if (object instanceof LoxMap) return lookup((LoxMap)object, expr.index);
+        int position = position(object, expr.index, expr.bracket);
+        return ((LoxList)object).get(position);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        return setIndex(expr, true);
+    }
+
+    // Stores a number into a packed list without boxing it, like assign()
+    // does for variables.
+    private Object setIndex(Expr.SetIndex expr, boolean valueUsed) {
+        Object object = evaluate(expr.object);
+        // The index is only checked once the value is evaluated too, so
+        // errors come in the same order as in the other engines.
+        double numberIndex = 0;
+        Object index = null;
+        boolean boxedIndex = false;
+        try {
+            numberIndex = evaluateNumber(expr.index);
+        } catch (NotANumber mismatch) {
+            index = mismatch.value;
+            boxedIndex = true;
+        }
+
+        if (object instanceof LoxMap) {
+            Object value = evaluate(expr.value);
+            Object key = boxedIndex ? Subscript.key(index, expr.bracket) : (Object)numberIndex;
+            ((LoxMap)object).put(key, value);
+            return value;
+        }
+
+        Object value;
+        if (producesNumber(expr.value)) {
+            try {
+                double number = evaluateNumber(expr.value);
+                LoxList list = Subscript.list(object, expr.bracket);
+                list.setNumber(boxedIndex ? list.index(index, expr.bracket)
+                    : list.index(numberIndex, expr.bracket), number);
+                return valueUsed ? (Object)number : null;
+            } catch (NotANumber mismatch) {
+                value = mismatch.value;
+            }
+        } else {
+            value = evaluate(expr.value);
         }
 
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+        LoxList list = Subscript.list(object, expr.bracket);
+        list.set(boxedIndex ? list.index(index, expr.bracket)
+            : list.index(numberIndex, expr.bracket), value);
+        return value;
+    }
+
+    // Looks a key up without boxing it if it is a number.
+    private Object lookup(LoxMap map, Expr key) {
+        try {
+            return map.get(evaluateNumber(key));
+        } catch (NotANumber mismatch) {
+            return map.get(mismatch.value);
         }
+    }
 
-        LoxCallable function = (LoxCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + 
-            " arguments but got " + arguments.size() + ".");
+    // Checks that object is a list and index evaluates to a position in it,
+    // without boxing the index.
+    private int position(Object object, Expr index, Token bracket) {
+        double number;
+        try {
+            number = evaluateNumber(index);
+        } catch (NotANumber mismatch) {
+            return Subscript.list(object, bracket).index(mismatch.value, bracket);
         }
+        return Subscript.list(object, bracket).index(number, bracket);
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        return curEnvironment.getAt(expr.heapDepth, expr.slot);
+    }
 
-        return function.call(this, arguments);
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        LoxClass superclass = (LoxClass)curEnvironment.getAt(expr.heapDepth, expr.slot);
+        LoxInstance instance = (LoxInstance)curEnvironment.getAt(expr.heapDepth - 1, 0);
+        return superclass.bindSuper(instance, expr.method);
     }
 
     @Override
@@ -130,13 +443,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
-        switch (expr.operator.type) {
-            case AND:
-                // Short circuit return false
-                if (!isTruthy(left)) return left;
-            case OR:
-                // Short circuit return true
-                if (isTruthy(left)) return left;
+        if (expr.operator.type == TokenType.AND) {
+            // Short circuit return false
+            if (!isTruthy(left)) return left;
+        } else {
+            // Short circuit return true
+            if (isTruthy(left)) return left;
         }
 
         // Right expression evaluation result is then the same as that of the entire expression.
@@ -145,25 +457,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return curEnvironment.getAt(distance, name.lexeme);
+        if (expr.frameSlot >= 0) {
+            int index = fp + expr.frameSlot;
+            Object value = stack[index];
+            return value == Environment.UNBOXED ? (Object)numberStack[index] : value;
+        } else if (expr.heapDepth >= 0) {
+            return curEnvironment.getAt(expr.heapDepth, expr.slot);
         } else {
-            return globals.get(name);
+            return globals.get(expr.name);
         }
     }
     
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
-        
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            curEnvironment.assignAt(distance, expr.name, value);
+        return assign(expr, true);
+    }
+
+    // Numbers assigned to locals stay unboxed in their slot, and are only
+    // boxed again if the value of the assignment itself is used.
+    private Object assign(Expr.Assign expr, boolean valueUsed) {
+        Object value;
+        if (expr.depth >= 0 && producesNumber(expr.value)) {
+            try {
+                double number = evaluateNumber(expr.value);
+                if (expr.frameSlot >= 0) {
+                    setNumber(expr.frameSlot, number);
+                } else {
+                    curEnvironment.assignNumberAt(expr.heapDepth, expr.slot, number);
+                }
+                return valueUsed ? (Object)number : null;
+            } catch (NotANumber mismatch) {
+                value = mismatch.value;
+            }
+        } else {
+            value = evaluate(expr.value);
+        }
+
+        if (expr.frameSlot >= 0) {
+            stack[fp + expr.frameSlot] = value;
+        } else if (expr.heapDepth >= 0) {
+            curEnvironment.assignAt(expr.heapDepth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -174,67 +507,160 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     /// Stmt.Visitor implementation
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        curEnvironment.define(stmt.name.lexeme, null);
-        LoxClass klass = new LoxClass(stmt.name.lexeme);
-        curEnvironment.assign(stmt.name, klass);
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        LoxClass superclass = null;
+        Environment environment = curEnvironment;
+        if (stmt.superclass != null) {
+            Object value = evaluate(stmt.superclass);
+            if (!(value instanceof LoxClass)) {
+                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+            superclass = (LoxClass)value;
+            environment = new Environment(curEnvironment, 1);
+            environment.define(superclass);
+        }
+
+        Map<String, LoxCallable> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods) {
+            methods.put(method.name.lexeme, new LoxFunction(method, environment));
+        }
+        LoxClass klass = new LoxClass(stmt.name.lexeme, superclass, methods);
+        define(stmt.name, klass);
         return null;
     }
     
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        evaluateDiscarding(stmt.expression);
         return null;
     }
     
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
+            if (stmt.frameSlot >= 0 && producesNumber(stmt.initializer)) {
+                try {
+                    setNumber(stmt.frameSlot, evaluateNumber(stmt.initializer));
+                    return null;
+                } catch (NotANumber mismatch) {
+                    value = mismatch.value;
+                }
+            } else if (curEnvironment != globals && producesNumber(stmt.initializer)) {
+                try {
+                    curEnvironment.defineNumber(evaluateNumber(stmt.initializer));
+                    return null;
+                } catch (NotANumber mismatch) {
+                    value = mismatch.value;
+                }
+            } else {
+                value = evaluate(stmt.initializer);
+            }
         }
         
-        curEnvironment.define(stmt.name.lexeme, value);
+        if (stmt.frameSlot >= 0) {
+            stack[fp + stmt.frameSlot] = value;
+        } else {
+            define(stmt.name, value);
+        }
         return null;
     }
     
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         Object value = evaluate(stmt.condition);
         if (isTruthy(value)) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            if (jit != null && currentFunction != null) jit.tierUp(currentFunction);
         }
         return null;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(curEnvironment));
+    public Completion visitForStmt(Stmt.For stmt) {
+        while (isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            if (stmt.increment != null) evaluateDiscarding(stmt.increment);
+            if (jit != null && currentFunction != null) jit.tierUp(currentFunction);
+        }
         return null;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        curEnvironment.define(stmt.name.lexeme, new LoxFunction(stmt, curEnvironment));
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                Completion completion = execute(statement);
+                if (completion != null) return completion;
+            }
+            return null;
+        }
+        if (!stmt.onStack) {
+            return executeBlock(stmt.statements, new Environment(curEnvironment, stmt.slotCount));
+        }
+        // Blocks nested in a frame already have their slots in it.
+        if (stmt.frameSize == 0) return executeBlock(stmt.statements, curEnvironment);
+
+        int caller = pushFrame(stmt.frameSize);
+        try {
+            return executeBlock(stmt.statements, curEnvironment);
+        } finally {
+            popFrame(caller);
+        }
+    }
+
+    @Override
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        define(stmt.name, new LoxFunction(stmt, curEnvironment));
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        returnValue = null;
+        if (stmt.tailCall) {
+            Expr.Call call = (Expr.Call)stmt.value;
+            Object callee = evaluate(call.callee);
+            Object[] arguments = evaluateArguments(call);
+            LoxCallable function = call.cache.resolve(callee, arguments.length, call.paren);
+            if (function instanceof LoxFunction) {
+                tailCallee = (LoxFunction)function;
+                tailArguments = arguments;
+            } else {
+                try {
+                    returnValue = function.call(this, Arrays.asList(arguments));
+                } catch (NativeError error) {
+                    throw error.at(call.paren);
+                }
+            }
+        } else if (stmt.value != null) {
+            returnValue = evaluate(stmt.value);
+        }
+        return Completion.RETURN;
+    }
 
-        throw new Return(value);
+    @Override
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
+    }
+
+    @Override
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
     
     // Evaluates an expression, e.g., 2 + 3 / 6  -> 2.5
@@ -242,23 +668,192 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
+    // Evaluates an expression whose value is unused, which spares boxing the
+    // result of an assignment.
+    private void evaluateDiscarding(Expr expr) {
+        if (expr instanceof Expr.Assign) {
+            assign((Expr.Assign)expr, false);
+        } else if (expr instanceof Expr.SetIndex) {
+            setIndex((Expr.SetIndex)expr, false);
+        } else {
+            evaluate(expr);
+        }
+    }
+
+    // Evaluates an expression expected to be a number without boxing it.
+    // Throws NotANumber carrying the actual value when it is not one.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            int specialization = binary.specialization;
+            if (specialization >= NUMBER_ADD && specialization <= NUMBER_DIVIDE) {
+                return numberBinary(binary, specialization);
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.frameSlot >= 0) {
+                int index = fp + variable.frameSlot;
+                Object value = stack[index];
+                if (value == Environment.UNBOXED) return numberStack[index];
+                if (value instanceof Double) return (double)value;
+                throw new NotANumber(value);
+            } else if (variable.heapDepth >= 0) {
+                Environment environment = curEnvironment.ancestor(variable.heapDepth);
+                Object value = environment.slots[variable.slot];
+                if (value == Environment.UNBOXED) return environment.numbers[variable.slot];
+                if (value instanceof Double) return (double)value;
+                throw new NotANumber(value);
+            }
+        } else if (expr instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index)expr;
+            Object object = evaluate(index.object);
+            Object value;
+            if (object instanceof LoxMap) {
+                value = lookup((LoxMap)object, index.index);
+            } else {
+                int position = position(object, index.index, index.bracket);
+                LoxList list = (LoxList)object;
+                if (list.isPacked()) return list.getNumber(position);
+                value = list.get(position);
+            }
+            if (value instanceof Double) return (double)value;
+            throw new NotANumber(value);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            NumberFunction function = numberFunction(call);
+            if (function != null) {
+                try {
+                    return callNumber(function, call);
+                } catch (NativeError error) {
+                    throw error.at(call.paren);
+                }
+            }
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            if (value instanceof Double) return (double)value;
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            try {
+                return -evaluateNumber(unary.right);
+            } catch (NotANumber mismatch) {
+                checkNumberOperand(unary.operator, mismatch.value);
+                throw mismatch;
+            }
+        }
+
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double)value;
+        throw new NotANumber(value);
+    }
+
+    // The NumberFunction a call of a global calls, if it has the arity the
+    // call passes, so the call can skip boxing.
+    private NumberFunction numberFunction(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable)) return null;
+        Expr.Variable callee = (Expr.Variable)call.callee;
+        if (callee.depth >= 0) return null;
+        Object function = globals.get(callee.name);
+        if (!(function instanceof NumberFunction)) return null;
+        NumberFunction number = (NumberFunction)function;
+        return number.arity() == call.arguments.size() ? number : null;
+    }
+
+    private double callNumber(NumberFunction function, Expr.Call call) {
+        double a;
+        try {
+            a = evaluateNumber(call.arguments.get(0));
+        } catch (NotANumber mismatch) {
+            // Evaluates the other argument before failing, like the boxed
+            // call would.
+            if (call.arguments.size() == 2) evaluate(call.arguments.get(1));
+            a = NumberFunction.number(mismatch.value);
+        }
+        if (function instanceof NumberFunction.Unary) {
+            return ((NumberFunction.Unary)function).apply(a);
+        }
+
+        double b;
+        try {
+            b = evaluateNumber(call.arguments.get(1));
+        } catch (NotANumber mismatch) {
+            b = NumberFunction.number(mismatch.value);
+        }
+        return ((NumberFunction.Binary)function).apply(a, b);
+    }
+
+
+    // Whether an expression is expected to be a number, so evaluateNumber()
+    // is worth trying before falling back to evaluate().
+    private static boolean producesNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            int specialization = ((Expr.Binary)expr).specialization;
+            return specialization >= NUMBER_ADD && specialization <= NUMBER_DIVIDE;
+        }
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return producesNumber(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        return false;
+    }
+
     // Executes an expression, i.e., prints to console or stores data in variables
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // Top-level declarations go into the named globals, everything else takes
+    // the next slot of the current frame.
+    private void define(Token name, Object value) {
+        if (curEnvironment == globals) {
+            globals.define(name.global, value);
+        } else {
+            curEnvironment.define(value);
+        }
+    }
+
+    // Makes room for a frame of the given size above the live ones and
+    // returns the frame pointer to hand back to popFrame().
+    int pushFrame(int size) {
+        int caller = fp;
+        fp = top;
+        top += size;
+        if (top > stack.length) {
+            int capacity = Math.max(top, stack.length * 2);
+            stack = Arrays.copyOf(stack, capacity);
+            numberStack = Arrays.copyOf(numberStack, capacity);
+        }
+        return caller;
+    }
+
+    void popFrame(int caller) {
+        // Lets the garbage collector have whatever the frame referenced.
+        Arrays.fill(stack, fp, top, null);
+        top = fp;
+        fp = caller;
+    }
+
+    // Stores an argument in the current frame.
+    void setArgument(int slot, Object value) {
+        stack[fp + slot] = value;
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private void setNumber(int slot, double value) {
+        stack[fp + slot] = Environment.UNBOXED;
+        numberStack[fp + slot] = value;
     }
 
     // Executes every statement in a block while considering variables in the proper scope.
-    void executeBlock(List<Stmt> statements, Environment curEnvironment) {
+    // Stops at the first statement that breaks, continues or returns.
+    Completion executeBlock(List<Stmt> statements, Environment curEnvironment) {
         Environment previous = this.curEnvironment;
         try {
             this.curEnvironment = curEnvironment;
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != null) return completion;
             }
+            return null;
         } finally {
             this.curEnvironment = previous;
         }
@@ -266,18 +861,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     /// Helpers
     
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         else if (object instanceof Boolean) return (boolean)object;
         else if (object instanceof Number) return (double)object != 0;
-        else if (object instanceof String) return  !"".equals((String)object);
+        else if (object instanceof CharSequence) return ((CharSequence)object).length() != 0;
         return true;
     }
 
-    private boolean isEqual(Object left, Object right) {
-        if (left == null & right == null) return  true;
-        if (left == null) return false;
-        return isTruthy(left) == isTruthy(right);
+    // Numbers, strings and booleans are equal when their values are, and
+    // everything else only to itself. A rope equals the string with the same
+    // characters. LoxMap hashes keys to agree with this.
+    static boolean isEqual(Object left, Object right) {
+        if (left == null) return right == null;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return left.toString().equals(right.toString());
+        }
+        return left.equals(right);
     }
 
     private String stringify(Object object) {
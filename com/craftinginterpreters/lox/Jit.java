@@ -0,0 +1,575 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.ClassFileWriter.*;
+
+// Second tier of the tree-walking Interpreter. LoxFunction counts calls and the
+// Interpreter counts loop back-edges against the function's declaration; once
+// that reaches the threshold the body is compiled into a JVM class, so HotSpot
+// optimizes it directly instead of the visitor calls that interpret it.
+//
+// Only self-contained bodies are compiled: a function that declares functions
+// or classes keeps being interpreted, since those would capture its locals,
+// which compiled code holds in JVM locals rather than an Environment.
+class Jit {
+    static final int DEFAULT_THRESHOLD = 1000;
+    // Marks a declaration the JIT gave up on.
+    private static final int NOT_COMPILABLE = Integer.MIN_VALUE;
+
+    private static final String CODE = "com/craftinginterpreters/lox/JitCode";
+    private static final String INTERPRETER = "Lcom/craftinginterpreters/lox/Interpreter;";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + "I)" + OBJECT;
+    private static final String TEST = "(" + OBJECT + OBJECT + "I)Z";
+
+    // Locals of the generated invoke(): this, interpreter, closure, arguments.
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int CLOSURE_LOCAL = 2;
+    private static final int ARGUMENTS_LOCAL = 3;
+    private static final int FIRST_LOCAL = 4;
+
+    private final int threshold;
+    private int compiledCount = 0;
+
+    Jit(int threshold) {
+        this.threshold = threshold;
+    }
+
+    // Records one call or back-edge and returns the compiled code, if any.
+    JitCode tierUp(Stmt.Function function) {
+        if (function.jitCode != null) return function.jitCode;
+        if (function.hotness < 0) return null;
+        if (++function.hotness < threshold) return null;
+
+        try {
+            function.jitCode = compile(function);
+        } catch (Unsupported | LinkageError | ReflectiveOperationException error) {
+            function.hotness = NOT_COMPILABLE;
+        }
+        return function.jitCode;
+    }
+
+    private JitCode compile(Stmt.Function function) throws ReflectiveOperationException {
+        String name = "LoxJit$" + function.name.lexeme + "$" + (++compiledCount);
+        FunctionCompiler compiler = new FunctionCompiler(name, function);
+        byte[] bytes = compiler.compile();
+
+        Class<?> type = new JitClassLoader().define(name, bytes);
+        JitCode code = (JitCode)type.getDeclaredConstructor().newInstance();
+        code.constants = compiler.constants.toArray();
+        code.sites = compiler.sites.toArray(new Token[0]);
+        code.caches = compiler.caches.toArray(new InlineCache[0]);
+        code.properties = compiler.properties.toArray(new PropertyCache[0]);
+        return code;
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class FunctionCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final String className;
+        private final Stmt.Function function;
+        private final ClassFileWriter writer;
+        private ClassFileWriter.MethodWriter method;
+
+        final List<Object> constants = new ArrayList<>();
+        final List<Token> sites = new ArrayList<>();
+        final List<InlineCache> caches = new ArrayList<>();
+        final List<PropertyCache> properties = new ArrayList<>();
+        // First JVM local of each scope inside the function, innermost last.
+        private final List<Integer> scopes = new ArrayList<>();
+        private int nextLocal = FIRST_LOCAL;
+        // Locals declared so far in the innermost scope, and in the ones
+        // enclosing it.
+        private int declaredInScope = 0;
+        private final List<Integer> declaredStack = new ArrayList<>();
+        // Jump targets of the enclosing loops, innermost last.
+        private final List<ClassFileWriter.Label> breakLabels = new ArrayList<>();
+        private final List<ClassFileWriter.Label> continueLabels = new ArrayList<>();
+
+        FunctionCompiler(String className, Stmt.Function function) {
+            this.className = className;
+            this.function = function;
+            this.writer = new ClassFileWriter(className, CODE);
+        }
+
+        byte[] compile() {
+            ClassFileWriter.MethodWriter init = writer.method(ACC_PUBLIC, "<init>", "()V", 1);
+            init.load(0);
+            init.invoke(INVOKESPECIAL, CODE, "<init>", "()V");
+            init.op(RETURN, 0);
+            init.finish();
+
+            method = writer.method(ACC_PUBLIC, "invoke",
+                "(" + INTERPRETER + OBJECT + "[" + OBJECT + ")" + OBJECT, FIRST_LOCAL);
+            int base = beginScope(function.slotCount);
+            for (int i = 0; i < function.params.size(); i++) {
+                method.load(ARGUMENTS_LOCAL);
+                method.pushInt(i);
+                method.op(AALOAD, -1);
+                method.store(base + i);
+            }
+            compile(function.body);
+            method.pushNull();
+            method.op(ARETURN, -1);
+            endScope();
+
+            // Branch offsets are signed 16-bit.
+            if (method.position() > Short.MAX_VALUE) throw new Unsupported();
+            method.finish();
+            return writer.toByteArray();
+        }
+
+        /// Stmt.Visitor implementation
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            if (!stmt.scoped) {
+                compile(stmt.statements);
+                return null;
+            }
+            beginScope(stmt.slotCount);
+            compile(stmt.statements);
+            endScope();
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            compile(stmt.expression);
+            method.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+            compileCondition(stmt.condition);
+            method.jump(IFEQ, elseBranch);
+            compile(stmt.thenBranch);
+            method.jump(GOTO, end);
+            method.place(elseBranch);
+            if (stmt.elseBranch != null) compile(stmt.elseBranch);
+            method.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            compileLoop(stmt.condition, stmt.body, null);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            compileLoop(stmt.condition, stmt.body, stmt.increment);
+            return null;
+        }
+
+        private void compileLoop(Expr condition, Stmt body, Expr increment) {
+            ClassFileWriter.Label start = new ClassFileWriter.Label();
+            ClassFileWriter.Label next = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+            method.place(start);
+            compileCondition(condition);
+            method.jump(IFEQ, end);
+            breakLabels.add(end);
+            continueLabels.add(next);
+            compile(body);
+            breakLabels.remove(breakLabels.size() - 1);
+            continueLabels.remove(continueLabels.size() - 1);
+            method.place(next);
+            if (increment != null) {
+                compile(increment);
+                method.op(POP, -1);
+            }
+            method.jump(GOTO, start);
+            method.place(end);
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            method.jump(GOTO, breakLabels.get(breakLabels.size() - 1));
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            method.jump(GOTO, continueLabels.get(continueLabels.size() - 1));
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.tailCall) {
+                compileCall((Expr.Call)stmt.value, "tailCall");
+            } else if (stmt.value != null) {
+                compile(stmt.value);
+            } else {
+                method.pushNull();
+            }
+            method.op(ARETURN, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                method.pushNull();
+            }
+            // Locals are declared in slot order, see Environment.define().
+            method.store(scopes.get(scopes.size() - 1) + declaredInScope++);
+            return null;
+        }
+
+        /// Expr.Visitor implementation
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            if (expr.depth < 0) {
+                method.load(0);
+                method.load(INTERPRETER_LOCAL);
+                compile(expr.value);
+                method.pushInt(site(expr.name));
+                method.invoke(INVOKEVIRTUAL, CODE, "setGlobal", "(" + INTERPRETER + OBJECT + "I)" + OBJECT);
+            } else if (expr.depth < scopes.size()) {
+                compile(expr.value);
+                method.op(DUP, 1);
+                method.store(local(expr.depth, expr.slot));
+            } else {
+                method.load(CLOSURE_LOCAL);
+                method.pushInt(expr.depth - scopes.size());
+                method.pushInt(expr.slot);
+                compile(expr.value);
+                method.invoke(INVOKESTATIC, CODE, "assignAt", "(" + OBJECT + "II" + OBJECT + ")" + OBJECT);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            switch (expr.operator.type) {
+                case BANG_EQUAL:
+                    compile(expr.left);
+                    compile(expr.right);
+                    method.invoke(INVOKESTATIC, CODE, "notEqual", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                    return null;
+                case EQUAL_EQUAL:
+                    compile(expr.left);
+                    compile(expr.right);
+                    method.invoke(INVOKESTATIC, CODE, "equal", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                    return null;
+            }
+
+            method.load(0);
+            compile(expr.left);
+            compile(expr.right);
+            method.pushInt(site(expr.operator));
+            method.invoke(INVOKEVIRTUAL, CODE, binaryHelper(expr.operator.type), BINARY);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            if (expr.callee instanceof Expr.Get) {
+                compileInvoke(expr, (Expr.Get)expr.callee);
+            } else {
+                compileCall(expr, "call");
+            }
+            return null;
+        }
+
+        private void compileInvoke(Expr.Call expr, Expr.Get get) {
+            method.load(0);
+            method.load(INTERPRETER_LOCAL);
+            compile(get.object);
+            compileArguments(expr);
+            method.pushInt(propertySite(get.name, get.cache));
+            method.pushInt(callSite(expr));
+            method.invoke(INVOKEVIRTUAL, CODE, "invokeMethod",
+                "(" + INTERPRETER + OBJECT + "[" + OBJECT + "II)" + OBJECT);
+        }
+
+        private void compileCall(Expr.Call expr, String helper) {
+            method.load(0);
+            method.load(INTERPRETER_LOCAL);
+            compile(expr.callee);
+            compileArguments(expr);
+            method.pushInt(callSite(expr));
+            method.invoke(INVOKEVIRTUAL, CODE, helper,
+                "(" + INTERPRETER + OBJECT + "[" + OBJECT + "I)" + OBJECT);
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            method.load(0);
+            compile(expr.object);
+            method.pushInt(propertySite(expr.name, expr.cache));
+            method.invoke(INVOKEVIRTUAL, CODE, "getProperty", "(" + OBJECT + "I)" + OBJECT);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            method.load(0);
+            compile(expr.object);
+            compile(expr.value);
+            method.pushInt(propertySite(expr.name, expr.cache));
+            method.invoke(INVOKEVIRTUAL, CODE, "setProperty", "(" + OBJECT + OBJECT + "I)" + OBJECT);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            method.load(0);
+            compile(expr.object);
+            compile(expr.index);
+            method.pushInt(site(expr.bracket));
+            method.invoke(INVOKEVIRTUAL, CODE, "getIndex", "(" + OBJECT + OBJECT + "I)" + OBJECT);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr) {
+            method.load(0);
+            compile(expr.object);
+            compile(expr.index);
+            compile(expr.value);
+            method.pushInt(site(expr.bracket));
+            method.invoke(INVOKEVIRTUAL, CODE, "setIndex", "(" + OBJECT + OBJECT + OBJECT + "I)" + OBJECT);
+            return null;
+        }
+
+        // 'super' and 'this' are bound outside of every method body, so they
+        // always come from the closure.
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            method.load(0);
+            method.load(CLOSURE_LOCAL);
+            method.pushInt(expr.depth - scopes.size());
+            method.pushInt(expr.slot);
+            method.invoke(INVOKESTATIC, CODE, "getAt", "(" + OBJECT + "II)" + OBJECT);
+            method.load(CLOSURE_LOCAL);
+            method.pushInt(expr.depth - 1 - scopes.size());
+            method.pushInt(0);
+            method.invoke(INVOKESTATIC, CODE, "getAt", "(" + OBJECT + "II)" + OBJECT);
+            method.pushInt(site(expr.method));
+            method.invoke(INVOKEVIRTUAL, CODE, "getSuper", "(" + OBJECT + OBJECT + "I)" + OBJECT);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            method.load(CLOSURE_LOCAL);
+            method.pushInt(expr.depth - scopes.size());
+            method.pushInt(expr.slot);
+            method.invoke(INVOKESTATIC, CODE, "getAt", "(" + OBJECT + "II)" + OBJECT);
+            return null;
+        }
+
+        private void compileArguments(Expr.Call expr) {
+            method.pushInt(expr.arguments.size());
+            method.newArray("java/lang/Object");
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                method.op(DUP, 1);
+                method.pushInt(i);
+                compile(expr.arguments.get(i));
+                method.op(AASTORE, -3);
+            }
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            compile(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value == null) {
+                method.pushNull();
+                return null;
+            }
+            method.load(0);
+            method.getField(CODE, "constants", "[" + OBJECT);
+            method.pushInt(constants.size());
+            method.op(AALOAD, -1);
+            constants.add(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            compile(expr.left);
+            method.op(DUP, 1);
+            method.invoke(INVOKESTATIC, CODE, "isTruthy", "(" + OBJECT + ")Z");
+            method.jump(expr.operator.type == TokenType.AND ? IFEQ : IFNE, end);
+            method.op(POP, -1);
+            compile(expr.right);
+            method.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth < 0) {
+                method.load(0);
+                method.load(INTERPRETER_LOCAL);
+                method.pushInt(site(expr.name));
+                method.invoke(INVOKEVIRTUAL, CODE, "getGlobal", "(" + INTERPRETER + "I)" + OBJECT);
+            } else if (expr.depth < scopes.size()) {
+                method.load(local(expr.depth, expr.slot));
+            } else {
+                method.load(CLOSURE_LOCAL);
+                method.pushInt(expr.depth - scopes.size());
+                method.pushInt(expr.slot);
+                method.invoke(INVOKESTATIC, CODE, "getAt", "(" + OBJECT + "II)" + OBJECT);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            if (expr.operator.type == TokenType.BANG) {
+                compile(expr.right);
+                method.invoke(INVOKESTATIC, CODE, "not", "(" + OBJECT + ")" + OBJECT);
+            } else {
+                method.load(0);
+                compile(expr.right);
+                method.pushInt(site(expr.operator));
+                method.invoke(INVOKEVIRTUAL, CODE, "negate", "(" + OBJECT + "I)" + OBJECT);
+            }
+            return null;
+        }
+
+        /// Helpers
+
+        private void compile(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement.accept(this);
+                // Anything after a jump is unreachable.
+                if (statement instanceof Stmt.Return ||
+                    statement instanceof Stmt.Break ||
+                    statement instanceof Stmt.Continue) break;
+            }
+        }
+
+        private void compile(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        private void compile(Expr expr) {
+            expr.accept(this);
+        }
+
+        // Leaves a primitive boolean for a branch, comparing numbers directly
+        // instead of boxing the result and testing its truthiness.
+        private void compileCondition(Expr condition) {
+            while (condition instanceof Expr.Grouping) {
+                condition = ((Expr.Grouping)condition).expression;
+            }
+            if (condition instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)condition;
+                String test = null;
+                switch (binary.operator.type) {
+                    case GREATER: test = "isGreater"; break;
+                    case GREATER_EQUAL: test = "isGreaterEqual"; break;
+                    case LESS: test = "isLess"; break;
+                    case LESS_EQUAL: test = "isLessEqual"; break;
+                }
+                if (test != null) {
+                    method.load(0);
+                    compile(binary.left);
+                    compile(binary.right);
+                    method.pushInt(site(binary.operator));
+                    method.invoke(INVOKEVIRTUAL, CODE, test, TEST);
+                    return;
+                }
+            }
+            compile(condition);
+            method.invoke(INVOKESTATIC, CODE, "isTruthy", "(" + OBJECT + ")Z");
+        }
+
+        private static String binaryHelper(TokenType type) {
+            switch (type) {
+                case PLUS: return "add";
+                case MINUS: return "subtract";
+                case STAR: return "multiply";
+                case SLASH: return "divide";
+                case GREATER: return "greater";
+                case GREATER_EQUAL: return "greaterEqual";
+                case LESS: return "less";
+                case LESS_EQUAL: return "lessEqual";
+            }
+            throw new Unsupported();
+        }
+
+        private int site(Token token) {
+            sites.add(token);
+            caches.add(null);
+            properties.add(null);
+            return sites.size() - 1;
+        }
+
+        private int callSite(Expr.Call expr) {
+            sites.add(expr.paren);
+            caches.add(expr.cache);
+            properties.add(null);
+            return sites.size() - 1;
+        }
+
+        // Shares the cache the Interpreter already filled while the function
+        // was cold.
+        private int propertySite(Token name, PropertyCache cache) {
+            sites.add(name);
+            caches.add(null);
+            properties.add(cache);
+            return sites.size() - 1;
+        }
+
+        private int local(int depth, int slot) {
+            return scopes.get(scopes.size() - 1 - depth) + slot;
+        }
+
+        // Reserves JVM locals for a scope and clears them, so every local is
+        // definitely assigned before the verifier sees it read.
+        private int beginScope(int slotCount) {
+            int base = nextLocal;
+            scopes.add(base);
+            declaredStack.add(declaredInScope);
+            declaredInScope = scopes.size() == 1 ? function.params.size() : 0;
+            nextLocal += slotCount;
+            for (int i = base; i < nextLocal; i++) {
+                method.pushNull();
+                method.store(i);
+            }
+            return base;
+        }
+
+        private void endScope() {
+            nextLocal = scopes.remove(scopes.size() - 1);
+            declaredInScope = declaredStack.remove(declaredStack.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+// Each compiled function gets its own loader, so its class can be unloaded
+// once nothing refers to the function anymore.
+class JitClassLoader extends ClassLoader {
+    JitClassLoader() {
+        super(JitClassLoader.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
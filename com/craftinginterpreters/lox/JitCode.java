@@ -0,0 +1,191 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Base class of the classes the JIT generates. Those are defined by their own
+// JitClassLoader and cannot see the package-private parts of the interpreter,
+// so everything they need goes through the public members here.
+public abstract class JitCode {
+    // Literal values of the compiled function, indexed by the generated code.
+    public Object[] constants;
+    // Tokens of the operations that can fail, used to report runtime errors.
+    Token[] sites;
+    // Inline caches of the call sites, null for sites of other operations.
+    InlineCache[] caches;
+    // Caches of the property sites, null for sites of other operations.
+    PropertyCache[] properties;
+
+    protected JitCode() {}
+
+    public abstract Object invoke(Interpreter interpreter, Object closure, Object[] arguments);
+
+    /// Operators
+
+    public final Object add(Object left, Object right, int site) {
+        if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        if (left instanceof CharSequence || right instanceof CharSequence) return Rope.concat(left, right);
+        throw new RuntimeError(sites[site], "Operands must be two numbers or two strings.");
+    }
+
+    public final Object subtract(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left - (double)right;
+    }
+
+    public final Object multiply(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left * (double)right;
+    }
+
+    public final Object divide(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left / (double)right;
+    }
+
+    public final Object greater(Object left, Object right, int site) {
+        return isGreater(left, right, site);
+    }
+
+    public final Object greaterEqual(Object left, Object right, int site) {
+        return isGreaterEqual(left, right, site);
+    }
+
+    public final Object less(Object left, Object right, int site) {
+        return isLess(left, right, site);
+    }
+
+    public final Object lessEqual(Object left, Object right, int site) {
+        return isLessEqual(left, right, site);
+    }
+
+    // Comparisons used directly as a condition skip boxing the result.
+    public final boolean isGreater(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left > (double)right;
+    }
+
+    public final boolean isGreaterEqual(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left >= (double)right;
+    }
+
+    public final boolean isLess(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left < (double)right;
+    }
+
+    public final boolean isLessEqual(Object left, Object right, int site) {
+        checkNumberOperands(left, right, site);
+        return (double)left <= (double)right;
+    }
+
+    public static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    public static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    public final Object negate(Object value, int site) {
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(sites[site], "Operand must be a number.");
+        }
+        return -(double)value;
+    }
+
+    /// Variables outside the compiled function
+
+    public final Object getGlobal(Interpreter interpreter, int site) {
+        return interpreter.globals.get(sites[site]);
+    }
+
+    public final Object setGlobal(Interpreter interpreter, Object value, int site) {
+        interpreter.globals.assign(sites[site], value);
+        return value;
+    }
+
+    public static Object getAt(Object closure, int depth, int slot) {
+        return ((Environment)closure).getAt(depth, slot);
+    }
+
+    public static Object assignAt(Object closure, int depth, int slot, Object value) {
+        ((Environment)closure).assignAt(depth, slot, value);
+        return value;
+    }
+
+    /// Properties
+
+    public final Object getProperty(Object object, int site) {
+        return properties[site].get(object, sites[site]);
+    }
+
+    public final Object setProperty(Object object, Object value, int site) {
+        properties[site].set(object, sites[site], value);
+        return value;
+    }
+
+    public final Object getIndex(Object list, Object index, int site) {
+        return Subscript.get(list, index, sites[site]);
+    }
+
+    public final Object setIndex(Object list, Object index, Object value, int site) {
+        Subscript.set(list, index, value, sites[site]);
+        return value;
+    }
+
+    public final Object getSuper(Object superclass, Object instance, int site) {
+        return ((LoxClass)superclass).bindSuper((LoxInstance)instance, sites[site]);
+    }
+
+    /// Calls
+
+    public final Object call(Interpreter interpreter, Object callee, Object[] arguments, int site) {
+        LoxCallable function = caches[site].resolve(callee, arguments.length, sites[site]);
+        try {
+            return function.call(interpreter, Arrays.asList(arguments));
+        } catch (NativeError error) {
+            throw error.at(sites[site]);
+        }
+    }
+
+    // Calls a method right off the instance, see Interpreter.invokeMethod().
+    public final Object invokeMethod(Interpreter interpreter, Object receiver, Object[] arguments,
+        int property, int site) {
+        LoxCallable method = properties[property].method(receiver, sites[property]);
+        if (method != null) {
+            InlineCache.checkArity(method, arguments.length, sites[site]);
+            return method.callMethod(interpreter, (LoxInstance)receiver, arguments);
+        }
+        return call(interpreter, properties[property].get(receiver, sites[property]), arguments, site);
+    }
+
+    // Leaves a call in tail position for the calling LoxFunction to run once
+    // the compiled function has returned.
+    public final Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, int site) {
+        LoxCallable function = caches[site].resolve(callee, arguments.length, sites[site]);
+        if (function instanceof LoxFunction) {
+            interpreter.tailCallee = (LoxFunction)function;
+            interpreter.tailArguments = arguments;
+            return null;
+        }
+        try {
+            return function.call(interpreter, Arrays.asList(arguments));
+        } catch (NativeError error) {
+            throw error.at(sites[site]);
+        }
+    }
+
+    private void checkNumberOperands(Object left, Object right, int site) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(sites[site], "Operands must be a numbers.");
+    }
+}
@@ -6,40 +6,128 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 import java.time.format.DateTimeFormatter;  
 import java.time.LocalDateTime;    
 
+// Command line front end, running a script or the REPL in a single
+// LoxContext.
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static LoxEngine engine;
+    private static LoxContext context;
+    private static boolean dumpAst = false;
+    private static boolean memoStats = false;
+    // Where runFile() keeps the resolved script, null to not cache it.
+    private static ScriptCache cache = null;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        LoxEngine.Mode mode = LoxEngine.Mode.TREE;
+        int jitThreshold = Jit.DEFAULT_THRESHOLD;
+        int optLevel = Optimizer.DEFAULT_LEVEL;
+        int memoCapacity = 0;
+        boolean cacheBeside = false;
+        String cacheDirectory = null;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                mode = parseEngine(arg.substring("--engine=".length()));
+            } else if (arg.startsWith("--jit-threshold=")) {
+                jitThreshold = parseCount(arg.substring("--jit-threshold=".length()));
+            } else if (arg.equals("--no-jit")) {
+                jitThreshold = 0;
+            } else if (arg.startsWith("--opt-level=")) {
+                optLevel = parseOptLevel(arg.substring("--opt-level=".length()));
+            } else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            } else if (arg.equals("--memoize")) {
+                memoCapacity = Memo.DEFAULT_CAPACITY;
+            } else if (arg.startsWith("--memoize=")) {
+                memoCapacity = parseCount(arg.substring("--memoize=".length()));
+            } else if (arg.equals("--memo-stats")) {
+                memoStats = true;
+            } else if (arg.equals("--cache")) {
+                cacheBeside = true;
+            } else if (arg.startsWith("--cache-dir=")) {
+                cacheDirectory = arg.substring("--cache-dir=".length());
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        engine = new LoxEngine(mode, optLevel, jitThreshold, memoCapacity);
+        context = engine.newContext(System.out, System.err);
+        if (script != null) {
+            if (cacheDirectory != null) {
+                cache = ScriptCache.in(Paths.get(cacheDirectory));
+            } else if (cacheBeside) {
+                cache = ScriptCache.beside(Paths.get(script));
+            }
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static LoxEngine.Mode parseEngine(String name) {
+        switch (name) {
+            case "tree": return LoxEngine.Mode.TREE;
+            case "vm": return LoxEngine.Mode.VM;
+            case "closure": return LoxEngine.Mode.CLOSURE;
+        }
+        usage();
+        return null;
+    }
+
+    private static int parseCount(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count > 0) return count;
+        } catch (NumberFormatException error) {
+            // Falls through to the usage message.
+        }
+        usage();
+        return 0;
+    }
+
+    private static int parseOptLevel(String value) {
+        try {
+            int level = Integer.parseInt(value);
+            if (level >= 0 && level <= Optimizer.MAX_LEVEL) return level;
+        } catch (NumberFormatException error) {
+            // Falls through to the usage message.
+        }
+        usage();
+        return 0;
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|vm|closure] [--jit-threshold=n | --no-jit]" +
+            " [--opt-level=0-" + Optimizer.MAX_LEVEL + "] [--dump-ast]" +
+            " [--memoize[=capacity]] [--memo-stats] [--cache | --cache-dir=dir] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+        LoxProgram program = cache == null
+            ? engine.compile(source, System.err)
+            : engine.compile(source, System.err, cache);
+        if (program != null && dumpAst) new AstPrinter().print(program.statements);
 
         // Indicate an error in the exit code.
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (program == null) System.exit(65);
+        boolean succeeded = context.run(program);
+        if (memoStats) reportMemos(program);
+        if (!succeeded) System.exit(70);
     }
 
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
-        System.out.print("Lox v0.9 (" + getTodayLabel() + ")\nType `exit` when finished.\n");
+        System.out.print("Lox v" + LoxEngine.VERSION + " (" + getTodayLabel() + ")\nType `exit` when finished.\n");
         for (;;) {
             System.out.print(">>> ");
             String line = reader.readLine();
@@ -47,8 +135,9 @@ public class Lox {
             if ("".equals(line)) continue;
             if ("exit".equals(line)) return;
 
-            run(line);
-            hadError = false;
+            LoxProgram program = engine.compile(line, System.err, true);
+            if (program != null && dumpAst) new AstPrinter().print(program.statements);
+            if (program != null) context.run(program);
         }
     }
 
@@ -58,47 +147,10 @@ public class Lox {
         return dtf.format(now);
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        // "50 + -3 * ( 2 - 1 )" -> [50, +, -, 3, *, (, 2, -, 1, )]
-        List<Token> tokens = scanner.scanTokens();
-        
-        // [50, "+", "-", 3, "*", "(", 2, "-", 1, ")"] -> (/ (group (+ 1.0 2.0)) true)
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        // Stop if syntax error.
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        if (hadError) return;
-
-        interpreter.interpret(statements);
-    }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println(
-            "[line " + line + "] Error" + where + ": " + message
-        );
-        hadError = true;
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void reportMemos(LoxProgram program) {
+        for (Memo memo : program.memos) {
+            System.err.println("[memo] " + memo.name + ": " + memo.hits() + " hits, " +
+                memo.misses() + " misses, " + memo.size() + " cached");
         }
     }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + 
-        "\n[line: " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-}
\ No newline at end of file
+}
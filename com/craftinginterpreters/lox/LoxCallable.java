@@ -1,8 +1,47 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
-}
\ No newline at end of file
+
+    // Entry points for calls with up to four arguments, so callers don't
+    // have to build a list. Callables override the ones they can serve
+    // without allocating; the rest fall back to call().
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
+
+    // Returns this callable as a method of instance, with 'this' bound to it.
+    // Natives are never declared in a class body, so only functions bind.
+    default LoxCallable bind(LoxInstance instance) {
+        return this;
+    }
+
+    // Calls this callable as a method of instance, like calling the bound
+    // method but without allocating it. Call sites that call a property
+    // straight away use this.
+    default Object callMethod(Interpreter interpreter, LoxInstance instance, Object[] arguments) {
+        return bind(instance).call(interpreter, Arrays.asList(arguments));
+    }
+}
@@ -1,17 +1,61 @@
 package com.craftinginterpreters.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-class LoxClass {
+class LoxClass implements LoxCallable {
     final String name;
+    private final Map<String, LoxCallable> methods;
+    // Shape of new instances, which have no fields yet.
+    final Shape shape = new Shape();
+    // Number of fields instances of this class have grown to so far, which
+    // new instances make room for up front.
+    int instanceSize = 0;
 
-    LoxClass(String name) {
+    LoxClass(String name, LoxClass superclass, Map<String, LoxCallable> methods) {
         this.name = name;
+        // Inherited methods are copied in up front, so finding any method
+        // takes one lookup however deep the class hierarchy is.
+        if (superclass != null) {
+            Map<String, LoxCallable> table = new HashMap<>(superclass.methods);
+            table.putAll(methods);
+            methods = table;
+        }
+        this.methods = methods;
+    }
+
+    LoxCallable findMethod(String name) {
+        return methods.get(name);
+    }
+
+    // Evaluates 'super.name' in a method of a subclass of this class.
+    LoxCallable bindSuper(LoxInstance instance, Token name) {
+        LoxCallable method = findMethod(name.lexeme);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        return method.bind(instance);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxCallable initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call(interpreter, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public int arity() {
+        LoxCallable initializer = findMethod("init");
+        return initializer == null ? 0 : initializer.arity();
     }
 
     @Override
     public String toString() {
         return name;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+// The globals, output and error stream programs run against, made by
+// LoxEngine.newContext(). Programs run in the same context see each other's
+// globals, like the lines of the REPL. A context runs one program at a time,
+// while separate contexts share nothing and can run in parallel.
+public final class LoxContext {
+    private final LoxEngine.Mode mode;
+    private final ErrorReporter reporter;
+    private final Interpreter interpreter;
+    private final Symbols globals;
+    // Null unless the mode is VM.
+    private final VM vm;
+    // Globals reset() goes back to, see mark().
+    private Object[] marked = null;
+
+    LoxContext(LoxEngine.Mode mode, int jitThreshold, Symbols globals,
+               PrintStream out, PrintStream err) {
+        this.mode = mode;
+        this.reporter = new ErrorReporter(err);
+        this.interpreter = new Interpreter(out, reporter, globals);
+        this.globals = globals;
+        interpreter.jit = jitThreshold > 0 ? new Jit(jitThreshold) : null;
+        this.vm = mode == LoxEngine.Mode.VM ? new VM(interpreter) : null;
+    }
+
+    // Runs the program, which the context's engine must have compiled.
+    // Returns false if it stopped on a runtime error, which is printed to
+    // the context's error stream.
+    public boolean run(LoxProgram program) {
+        if (program.globals != globals) {
+            throw new IllegalArgumentException("Program was compiled by another engine.");
+        }
+        reporter.hadRuntimeError = false;
+        switch (mode) {
+            case TREE: interpreter.interpret(program.statements); break;
+            case VM: vm.interpret(program.script); break;
+            case CLOSURE: ClosureCompiler.interpret(program.closures, interpreter); break;
+        }
+        return !reporter.hadRuntimeError;
+    }
+
+    // Makes a value of the host a global of the programs run here, e.g. a
+    // LoxCallable they can call.
+    public void define(String name, Object value) {
+        interpreter.globals.define(name, value);
+    }
+
+    // The value of a global, null if it is nil or not defined.
+    public Object get(String name) {
+        return interpreter.globals.lookup(name);
+    }
+
+    // Remembers which value each global has now, for reset() to go back to.
+    // Only the bindings are remembered: a list or instance reachable from a
+    // global keeps whatever changes are made to it.
+    void mark() {
+        marked = interpreter.globals.snapshot();
+    }
+
+    // Undoes every define and assignment of a global since mark(). This only
+    // swaps in the marked values; the first write to a global afterwards
+    // copies them, which takes time in proportion to the number of globals.
+    void reset() {
+        interpreter.globals.restore(marked);
+    }
+
+    void redirect(PrintStream out, PrintStream err) {
+        interpreter.redirect(out);
+        reporter.redirect(err);
+    }
+}
@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Entry point for embedding Lox. An engine holds the settings the command
+// line takes, compiles scripts into LoxPrograms and makes the LoxContexts
+// that run them. Engines and programs never change once made, so one of each
+// can serve any number of threads; each thread runs its own context.
+public final class LoxEngine {
+    public static final String VERSION = "0.9";
+
+    public enum Mode {
+        TREE,
+        VM,
+        CLOSURE
+    }
+
+    private final Mode mode;
+    private final int optLevel;
+    // Zero disables the JIT.
+    private final int jitThreshold;
+    // Capacity of each pure function's result cache, zero when off.
+    private final int memoCapacity;
+    // Numbers the names programs bind at global scope, the same in every
+    // program and context of the engine.
+    private final Symbols globals = new Symbols();
+
+    public LoxEngine() {
+        this(Mode.TREE, Optimizer.DEFAULT_LEVEL, Jit.DEFAULT_THRESHOLD, 0);
+    }
+
+    public LoxEngine(Mode mode, int optLevel, int jitThreshold, int memoCapacity) {
+        if (optLevel < 0 || optLevel > Optimizer.MAX_LEVEL) {
+            throw new IllegalArgumentException("Optimization level must be 0 to " +
+                Optimizer.MAX_LEVEL + ".");
+        }
+        if (jitThreshold < 0 || memoCapacity < 0) {
+            throw new IllegalArgumentException("Thresholds and capacities can't be negative.");
+        }
+        this.mode = mode;
+        this.optLevel = optLevel;
+        this.jitThreshold = jitThreshold;
+        this.memoCapacity = memoCapacity;
+    }
+
+    // Scans, parses, resolves and optimizes a script. Returns null if it has
+    // errors, which are printed to err.
+    public LoxProgram compile(String source, PrintStream err) {
+        return compile(source, err, false, null);
+    }
+
+    // Compiles a script that will run after prelude in the same context, as
+    // in a LoxPool. Natives the prelude rebinds are not treated as pure.
+    public LoxProgram compile(String source, PrintStream err, LoxProgram prelude) {
+        return compile(source, err, false, prelude);
+    }
+
+    // A line of the REPL runs after the lines before it, which may have
+    // rebound any global, so only whole scripts rely on pure natives and
+    // memoize functions.
+    LoxProgram compile(String source, PrintStream err, boolean interactive) {
+        return compile(source, err, interactive, null);
+    }
+
+    private LoxProgram compile(String source, PrintStream err, boolean interactive,
+                               LoxProgram prelude) {
+        List<Stmt> statements = resolve(source, err);
+        if (statements == null) return null;
+        return finish(statements, err, interactive, prelude);
+    }
+
+    // Like compile(), but takes the resolved tree from cache if it has the
+    // script, and stores it there if not.
+    LoxProgram compile(String source, PrintStream err, ScriptCache cache) {
+        byte[] key = ScriptCache.key(source);
+        List<Stmt> statements = cache.load(key, globals);
+        if (statements == null) {
+            statements = resolve(source, err);
+            if (statements == null) return null;
+            cache.store(key, statements);
+        }
+        return finish(statements, err, false, null);
+    }
+
+    // Scans, parses and resolves a script. Returns null if it has errors.
+    private List<Stmt> resolve(String source, PrintStream err) {
+        ErrorReporter reporter = new ErrorReporter(err);
+        Symbols symbols = new Symbols();
+        Scanner scanner = new Scanner(source, reporter, symbols);
+        // "50 + -3 * ( 2 - 1 )" -> [50, +, -, 3, *, (, 2, -, 1, )]
+        List<Token> tokens = scanner.scanTokens();
+
+        // [50, "+", "-", 3, "*", "(", 2, "-", 1, ")"] -> (/ (group (+ 1.0 2.0)) true)
+        Parser parser = new Parser(tokens, reporter);
+        List<Stmt> statements = parser.parse();
+        // Stop if syntax error.
+        if (reporter.hadError) return null;
+
+        Resolver resolver = new Resolver(reporter, symbols, globals);
+        resolver.resolve(statements);
+
+        if (reporter.hadError) return null;
+        return statements;
+    }
+
+    // Optimizes a resolved tree and compiles it for the engine's mode.
+    // Returns null if it outgrows the bytecode, which is printed to err.
+    private LoxProgram finish(List<Stmt> statements, PrintStream err, boolean interactive,
+                              LoxProgram prelude) {
+        Set<String> rebound = Purity.rebound(statements);
+        Map<String, NativeFunction> pureNatives = Collections.emptyMap();
+        if (!interactive) {
+            Set<String> unavailable = rebound;
+            if (prelude != null) {
+                unavailable = new HashSet<>(rebound);
+                unavailable.addAll(prelude.rebound);
+            }
+            pureNatives = Natives.installed().pure(unavailable);
+        }
+
+        statements = new Optimizer(optLevel, pureNatives).optimize(statements);
+        List<Memo> memos = Collections.emptyList();
+        if (memoCapacity > 0 && !interactive) {
+            memos = Purity.memoize(statements, memoCapacity, pureNatives.keySet());
+        }
+
+        FunctionProto script = null;
+        ClosureCompiler.StmtNode[] closures = null;
+        switch (mode) {
+            case TREE: break;
+            case VM:
+                try {
+                    script = BytecodeCompiler.compile(statements);
+                } catch (RuntimeError error) {
+                    new ErrorReporter(err).error(error.token, error.getMessage());
+                    return null;
+                }
+                break;
+            case CLOSURE: closures = ClosureCompiler.compile(statements); break;
+        }
+        return new LoxProgram(statements, script, closures, memos, rebound, globals);
+    }
+
+    // A context of its own for each thread running programs, writing what
+    // they print to out and their runtime errors to err.
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return new LoxContext(mode, jitThreshold, globals, out, err);
+    }
+}
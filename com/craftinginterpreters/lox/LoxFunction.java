@@ -13,16 +13,209 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        return run(interpreter, declaration, closure, arguments.toArray());
+    }
+
+    // The fixed-arity entry points put the arguments straight into the new
+    // frame, unless the call needs them as an array anyway.
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (!interpreted(interpreter)) return run(interpreter, declaration, closure, new Object[0]);
+        if (declaration.declaresClosures) {
+            return enter(interpreter, new Environment(closure, declaration.slotCount));
+        }
+        return enterFrame(interpreter, interpreter.pushFrame(declaration.frameSize));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (!interpreted(interpreter)) return run(interpreter, declaration, closure, new Object[] {a});
+        if (declaration.declaresClosures) {
+            Environment environment = new Environment(closure, declaration.slotCount);
+            environment.define(a);
+            return enter(interpreter, environment);
+        }
+        int caller = interpreter.pushFrame(declaration.frameSize);
+        interpreter.setArgument(0, a);
+        return enterFrame(interpreter, caller);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (!interpreted(interpreter)) return run(interpreter, declaration, closure, new Object[] {a, b});
+        if (declaration.declaresClosures) {
+            Environment environment = new Environment(closure, declaration.slotCount);
+            environment.define(a);
+            environment.define(b);
+            return enter(interpreter, environment);
+        }
+        int caller = interpreter.pushFrame(declaration.frameSize);
+        interpreter.setArgument(0, a);
+        interpreter.setArgument(1, b);
+        return enterFrame(interpreter, caller);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (!interpreted(interpreter)) return run(interpreter, declaration, closure, new Object[] {a, b, c});
+        if (declaration.declaresClosures) {
+            Environment environment = new Environment(closure, declaration.slotCount);
+            environment.define(a);
+            environment.define(b);
+            environment.define(c);
+            return enter(interpreter, environment);
+        }
+        int caller = interpreter.pushFrame(declaration.frameSize);
+        interpreter.setArgument(0, a);
+        interpreter.setArgument(1, b);
+        interpreter.setArgument(2, c);
+        return enterFrame(interpreter, caller);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if (!interpreted(interpreter)) return run(interpreter, declaration, closure, new Object[] {a, b, c, d});
+        if (declaration.declaresClosures) {
+            Environment environment = new Environment(closure, declaration.slotCount);
+            environment.define(a);
+            environment.define(b);
+            environment.define(c);
+            environment.define(d);
+            return enter(interpreter, environment);
+        }
+        int caller = interpreter.pushFrame(declaration.frameSize);
+        interpreter.setArgument(0, a);
+        interpreter.setArgument(1, b);
+        interpreter.setArgument(2, c);
+        interpreter.setArgument(3, d);
+        return enterFrame(interpreter, caller);
+    }
+
+    // Whether this call will run in the tree-walker without a memo lookup.
+    // Memoized functions key their results on the argument list and
+    // compiled ones take an array. Counts the call towards compiling it.
+    private boolean interpreted(Interpreter interpreter) {
+        if (declaration.memo != null || declaration.jitCode != null) return false;
+        return interpreter.jit == null || interpreter.jit.tierUp(declaration) == null;
+    }
+
+    // Runs the body in an Environment that already holds the arguments.
+    private Object enter(Interpreter interpreter, Environment environment) {
+        return runTailCalls(interpreter, execute(interpreter, declaration, environment));
+    }
+
+    // Runs the body in the frame pushed for it, which already holds the
+    // arguments. The function captures nothing, so its locals live on the
+    // Interpreter's frame stack and the closure is all it needs around it.
+    private Object enterFrame(Interpreter interpreter, int caller) {
+        Object value;
+        try {
+            value = execute(interpreter, declaration, closure);
+        } finally {
+            interpreter.popFrame(caller);
         }
+        return runTailCalls(interpreter, value);
+    }
+
+    // Continues with the call the body ended with in tail position, if any.
+    private static Object runTailCalls(Interpreter interpreter, Object value) {
+        if (interpreter.tailCallee == null) return value;
+        LoxFunction next = (LoxFunction)interpreter.tailCallee;
+        Object[] arguments = interpreter.tailArguments;
+        interpreter.tailCallee = null;
+        interpreter.tailArguments = null;
+        return run(interpreter, next.declaration, next.closure, arguments);
+    }
+
+    // Runs a function and then each call it ends with in tail position, one
+    // after the other, so a chain of tail calls takes constant stack.
+    private static Object run(Interpreter interpreter, Stmt.Function declaration,
+        Environment closure, Object[] values) {
+        // Memoized calls in the chain, which all return its final value.
+        Memo.Pending pending = null;
+        for (;;) {
+            if (declaration.memo != null) {
+                List<Object> key = Memo.key(values);
+                if (key != null) {
+                    Object cached = declaration.memo.get(key);
+                    if (cached != Memo.MISSING) {
+                        return pending == null ? cached : pending.complete(cached);
+                    }
+                    pending = new Memo.Pending(declaration.memo, key, pending);
+                }
+            }
+
+            JitCode code = declaration.jitCode;
+            if (code == null && interpreter.jit != null) {
+                code = interpreter.jit.tierUp(declaration);
+            }
+
+            Object value;
+            if (code != null) {
+                value = code.invoke(interpreter, closure, values);
+            } else if (declaration.declaresClosures) {
+                Environment environment = new Environment(closure, declaration.slotCount);
+                for (Object argument : values) {
+                    environment.define(argument);
+                }
+                value = execute(interpreter, declaration, environment);
+            } else {
+                int caller = interpreter.pushFrame(declaration.frameSize);
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        interpreter.setArgument(i, values[i]);
+                    }
+                    value = execute(interpreter, declaration, closure);
+                } finally {
+                    interpreter.popFrame(caller);
+                }
+            }
+
+            if (interpreter.tailCallee == null) {
+                return pending == null ? value : pending.complete(value);
+            }
+            LoxFunction next = (LoxFunction)interpreter.tailCallee;
+            declaration = next.declaration;
+            closure = next.closure;
+            values = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+        }
+    }
+
+    private static Object execute(Interpreter interpreter, Stmt.Function declaration,
+        Environment environment) {
+        Stmt.Function caller = interpreter.currentFunction;
+        interpreter.currentFunction = declaration;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            if (interpreter.executeBlock(declaration.body, environment) == Completion.RETURN) {
+                Object value = interpreter.returnValue;
+                interpreter.returnValue = null;
+                return value;
+            }
+            return null;
+        } finally {
+            interpreter.currentFunction = caller;
         }
-        return null;
+    }
+
+    // Methods find 'this' in an Environment of its own between the body and
+    // the closure, see Resolver.visitClassStmt().
+    @Override
+    public LoxCallable bind(LoxInstance instance) {
+        return new LoxFunction(declaration, bound(instance));
+    }
+
+    @Override
+    public Object callMethod(Interpreter interpreter, LoxInstance instance, Object[] arguments) {
+        return run(interpreter, declaration, bound(instance), arguments);
+    }
+
+    private Environment bound(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(instance);
+        return environment;
     }
 
     @Override
@@ -34,4 +227,4 @@ class LoxFunction implements LoxCallable {
     public String toString() {
         return "<fn " + declaration.name.lexeme + ">";
     }
-}
\ No newline at end of file
+}
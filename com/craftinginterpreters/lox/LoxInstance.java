@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+class LoxInstance {
+    final LoxClass klass;
+    // Says which slot of fields holds which field, see Shape.
+    Shape shape;
+    Object[] fields;
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+        this.shape = klass.shape;
+        this.fields = new Object[klass.instanceSize];
+    }
+
+    // Stores a field at the slot shape gives it and moves the instance to
+    // that shape, which is either the current one or one field larger.
+    void put(Shape shape, int slot, Object value) {
+        if (slot >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(slot + 1, fields.length * 2));
+            klass.instanceSize = Math.max(klass.instanceSize, shape.size);
+        }
+        fields[slot] = value;
+        this.shape = shape;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
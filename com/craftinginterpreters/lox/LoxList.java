@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A growable list, created by the list() native and indexed with a[i]. As
+// long as a list has only ever held numbers it keeps them unboxed in a
+// double[]; the first store of anything else moves the elements into an
+// Object[] for good.
+public final class LoxList {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    // Null once the list has switched to values.
+    private double[] numbers;
+    private Object[] values = null;
+    private int size;
+
+    // A list of size zeros.
+    public LoxList(int size) {
+        numbers = new double[Math.max(size, DEFAULT_CAPACITY)];
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    boolean isPacked() {
+        return numbers != null;
+    }
+
+    public Object get(int index) {
+        return numbers != null ? (Object)numbers[index] : values[index];
+    }
+
+    // Only valid while the list is packed.
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    public void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            unpack();
+        }
+        values[index] = value;
+    }
+
+    void setNumber(int index, double value) {
+        if (numbers != null) {
+            numbers[index] = value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    public void add(Object value) {
+        int capacity = numbers != null ? numbers.length : values.length;
+        if (size == capacity) {
+            if (numbers != null) {
+                numbers = Arrays.copyOf(numbers, capacity * 2);
+            } else {
+                values = Arrays.copyOf(values, capacity * 2);
+            }
+        }
+        set(size++, value);
+    }
+
+    private void unpack() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    // Checks that index is a position in the list, see Subscript.
+    int index(Object index, Token bracket) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "Index must be a number.");
+        }
+        return index((double)index, bracket);
+    }
+
+    int index(double index, Token bracket) {
+        int position = (int)index;
+        if (position != index || position < 0 || position >= size) {
+            throw new RuntimeError(bracket, "Index out of bounds.");
+        }
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            text.append(get(i));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.craftinginterpreters.lox;
+
+// A hash map from Lox values to Lox values, created by the map() native and
+// indexed with m[key] like a list. Keys match when Interpreter.isEqual() says
+// they are equal, and reading an absent key yields nil.
+//
+// Entries live in parallel arrays probed linearly from the key's hash, with
+// the hash of each key kept alongside it so probing rarely has to compare
+// keys and growing never rehashes them. Removal shifts the entries after the
+// removed one back instead of leaving tombstones.
+public final class LoxMap {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    // A null key marks an empty bucket, which is why nil can't be a key.
+    private Object[] keys = new Object[DEFAULT_CAPACITY];
+    private Object[] values = new Object[DEFAULT_CAPACITY];
+    private int[] hashes = new int[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public Object get(Object key) {
+        if (key instanceof Double) return get((double)key);
+        if (key == null) return null;
+        int bucket = find(key, hash(key));
+        return bucket < 0 ? null : values[bucket];
+    }
+
+    // Looks up a number key without boxing it.
+    Object get(double key) {
+        int bucket = find(key);
+        return bucket < 0 ? null : values[bucket];
+    }
+
+    public boolean containsKey(Object key) {
+        if (key == null) return false;
+        if (key instanceof Double) return find((double)key) >= 0;
+        return find(key, hash(key)) >= 0;
+    }
+
+    public void put(Object key, Object value) {
+        if (key == null) throw new IllegalArgumentException("Map keys can't be nil.");
+        // A string built by '+' is stored flat, it would be flattened for
+        // every comparison otherwise.
+        if (key instanceof Rope) key = key.toString();
+        int hash = hash(key);
+        int bucket = key instanceof Double ? find((double)key) : find(key, hash);
+        if (bucket >= 0) {
+            values[bucket] = value;
+            return;
+        }
+        insert(key, hash, value);
+    }
+
+    public boolean remove(Object key) {
+        if (key == null) return false;
+        int bucket = key instanceof Double ? find((double)key) : find(key, hash(key));
+        if (bucket < 0) return false;
+
+        // Moves later entries of the same run back into the hole unless their
+        // own bucket lies after it, so every key stays reachable from its
+        // bucket without gaps.
+        int mask = keys.length - 1;
+        int hole = bucket;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = spread(hashes[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hashes[hole] = hashes[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        return true;
+    }
+
+    public LoxList keys() {
+        LoxList list = new LoxList(0);
+        for (Object key : keys) {
+            if (key != null) list.add(key);
+        }
+        return list;
+    }
+
+    private void insert(Object key, int hash, Object value) {
+        // Grows once two thirds full, past which probe runs get long.
+        if ((size + 1) * 3 > keys.length * 2) grow();
+        int mask = keys.length - 1;
+        int bucket = spread(hash) & mask;
+        while (keys[bucket] != null) bucket = (bucket + 1) & mask;
+        keys[bucket] = key;
+        values[bucket] = value;
+        hashes[bucket] = hash;
+        size++;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) insert(oldKeys[i], oldHashes[i], oldValues[i]);
+        }
+    }
+
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        for (int bucket = spread(hash) & mask; keys[bucket] != null; bucket = (bucket + 1) & mask) {
+            if (hashes[bucket] == hash && Interpreter.isEqual(keys[bucket], key)) return bucket;
+        }
+        return -1;
+    }
+
+    private int find(double key) {
+        long bits = Double.doubleToLongBits(key);
+        int hash = Double.hashCode(key);
+        int mask = keys.length - 1;
+        for (int bucket = spread(hash) & mask; keys[bucket] != null; bucket = (bucket + 1) & mask) {
+            if (hashes[bucket] == hash && keys[bucket] instanceof Double &&
+                Double.doubleToLongBits((double)keys[bucket]) == bits) {
+                return bucket;
+            }
+        }
+        return -1;
+    }
+
+    // Agrees with Interpreter.isEqual(): strings and ropes hash by their
+    // characters, using the hash String caches, and numbers by value.
+    private static int hash(Object key) {
+        if (key instanceof CharSequence) return key.toString().hashCode();
+        return key.hashCode();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            if (text.length() > 1) text.append(", ");
+            text.append(keys[i]).append(": ").append(values[i]);
+        }
+        return text.append("}").toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// A fixed set of LoxContexts that have already run a prelude, handed out to
+// threads that each run a short program. Making a context defines every
+// native and running the prelude may take far longer than the program, so
+// the pool does both once per context up front.
+//
+// A context comes back from release() with its globals bound as they were
+// after the prelude. Resetting them is constant time, since the globals are
+// copied on write, though the first write after it copies all of them.
+// Objects the prelude made, like a list held in a global, are not copied,
+// so a program that changes one changes it for later users of the context
+// too.
+public final class LoxPool {
+    private final BlockingQueue<LoxContext> idle;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // Makes size contexts and runs prelude in each, writing what it prints
+    // to out and err, which is also where a context is left writing once it
+    // is released.
+    public LoxPool(LoxEngine engine, LoxProgram prelude, int size,
+                   PrintStream out, PrintStream err) {
+        if (size <= 0) throw new IllegalArgumentException("Pool size must be positive.");
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.out = out;
+        this.err = err;
+        for (int i = 0; i < size; i++) {
+            LoxContext context = engine.newContext(out, err);
+            if (!context.run(prelude)) {
+                throw new IllegalArgumentException("Prelude stopped on a runtime error.");
+            }
+            context.mark();
+            idle.add(context);
+        }
+    }
+
+    // Takes a context for the calling thread, waiting for one to be released
+    // if they are all in use. What programs run in it print goes to out and
+    // err. The caller can define globals before running programs and read
+    // them afterwards, and must hand the context back with release().
+    public LoxContext acquire(PrintStream out, PrintStream err) throws InterruptedException {
+        LoxContext context = idle.take();
+        context.redirect(out, err);
+        return context;
+    }
+
+    public void release(LoxContext context) {
+        context.reset();
+        context.redirect(out, err);
+        if (!idle.offer(context)) {
+            throw new IllegalStateException("Released more contexts than were acquired.");
+        }
+    }
+
+    // Runs program in a context of the pool. Returns false if it stopped on
+    // a runtime error, which is printed to err.
+    public boolean run(LoxProgram program, PrintStream out, PrintStream err)
+            throws InterruptedException {
+        LoxContext context = acquire(out, err);
+        try {
+            return context.run(program);
+        } finally {
+            release(context);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+// A compiled script, ready to run in any number of LoxContexts at once.
+//
+// The syntax tree, bytecode and closures still change as they run, but only
+// in ways threads can share: type feedback and inline caches that are
+// checked before use and replaced as a whole, compiled code that is
+// published once complete, and memo tables that lock.
+public final class LoxProgram {
+    final List<Stmt> statements;
+    // What the VM or the closure engine runs instead of the tree, compiled
+    // once for every context of the engine. Null unless it is the engine's
+    // mode.
+    final FunctionProto script;
+    final ClosureCompiler.StmtNode[] closures;
+    // Result caches of the program's pure functions, see Purity.
+    final List<Memo> memos;
+    // Globals the program declares or assigns, see Purity.rebound().
+    final Set<String> rebound;
+    // Global names of the engine that compiled it, which its globals are
+    // numbered in.
+    final Symbols globals;
+
+    LoxProgram(List<Stmt> statements, FunctionProto script,
+               ClosureCompiler.StmtNode[] closures, List<Memo> memos,
+               Set<String> rebound, Symbols globals) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.script = script;
+        this.closures = closures;
+        this.memos = Collections.unmodifiableList(memos);
+        this.rebound = Collections.unmodifiableSet(rebound);
+        this.globals = globals;
+    }
+}
@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Results of a pure function keyed by its arguments. Holds at most capacity
+// entries and evicts the least recently used one to make room. A memo
+// belongs to the function's declaration, so contexts running the same
+// LoxProgram share it and each access takes its lock.
+class Memo {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // Returned by get() when there is no result for the arguments.
+    static final Object MISSING = new Object();
+
+    // A call whose result is not known yet, and the calls further up its
+    // chain of tail calls that will return the same value.
+    static class Pending {
+        final Memo memo;
+        final List<Object> key;
+        final Pending next;
+
+        Pending(Memo memo, List<Object> key, Pending next) {
+            this.memo = memo;
+            this.key = key;
+            this.next = next;
+        }
+
+        Object complete(Object value) {
+            // A Rope flattens itself the first time it's read, which isn't
+            // safe to race on from other threads.
+            Object cached = value instanceof Rope ? value.toString() : value;
+            for (Pending pending = this; pending != null; pending = pending.next) {
+                pending.memo.put(pending.key, cached);
+            }
+            return value;
+        }
+    }
+
+    final String name;
+    private int hits = 0;
+    private int misses = 0;
+    private final Map<List<Object>, Object> results;
+
+    Memo(String name, int capacity) {
+        this.name = name;
+        this.results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Only arguments compared by value make a usable key, so calls with
+    // functions or instances are not memoized. Ropes are flattened, since a
+    // Rope doesn't compare equal to the String with the same characters.
+    static List<Object> key(Object[] arguments) {
+        Object[] values = arguments;
+        for (int i = 0; i < arguments.length; i++) {
+            Object argument = arguments[i];
+            if (argument instanceof Rope) {
+                if (values == arguments) values = arguments.clone();
+                values[i] = argument.toString();
+            } else if (argument != null &&
+                !(argument instanceof Double) &&
+                !(argument instanceof String) &&
+                !(argument instanceof Boolean)) {
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    synchronized Object get(List<Object> key) {
+        Object value = results.getOrDefault(key, MISSING);
+        if (value == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    private synchronized void put(List<Object> key, Object value) {
+        results.put(key, value);
+    }
+
+    synchronized int hits() {
+        return hits;
+    }
+
+    synchronized int misses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+}
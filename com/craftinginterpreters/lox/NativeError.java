@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by natives for calls they can't serve, e.g. arguments of the wrong
+// type. Natives don't know the call site, so the error has no token; each
+// engine catches it where it calls the native and rethrows it at().
+public class NativeError extends RuntimeError {
+    public NativeError(String message) {
+        super(null, message);
+    }
+
+    // The same error, reported at the paren of the call.
+    RuntimeError at(Token paren) {
+        return new RuntimeError(paren, getMessage());
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+// A function implemented in Java rather than Lox. Natives don't need to
+// implement this, but those that do can tell the engines more about
+// themselves.
+public interface NativeFunction extends LoxCallable {
+    // A pure native returns a value that only depends on its arguments, has
+    // no side effects and never uses the interpreter it is passed, which may
+    // be null. Calls with literal arguments are then folded by the Optimizer,
+    // and Lox functions calling it can still be memoized.
+    default boolean isPure() {
+        return false;
+    }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// A set of native functions shipped in a jar of its own. Modules are found
+// with ServiceLoader: list the implementing class in
+// META-INF/services/com.craftinginterpreters.lox.NativeModule and put the
+// jar on the classpath, and its natives become globals of every script.
+public interface NativeModule {
+    void register(Natives natives);
+}
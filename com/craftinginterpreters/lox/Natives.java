@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import com.craftinginterpreters.lox.native_functions.Core;
+
+// The natives every interpreter starts with: those of the Core module, then
+// those of each NativeModule on the classpath. A module defining a name
+// again replaces the earlier native.
+public final class Natives {
+    private static Natives installed = null;
+
+    private final Map<String, LoxCallable> functions = new LinkedHashMap<>();
+
+    private Natives() {}
+
+    public void define(String name, LoxCallable function) {
+        functions.put(name, function);
+    }
+
+    // Modules are loaded once, by the first interpreter.
+    static synchronized Natives installed() {
+        if (installed == null) {
+            Natives natives = new Natives();
+            new Core().register(natives);
+            for (NativeModule module : ServiceLoader.load(NativeModule.class)) {
+                module.register(natives);
+            }
+            installed = natives;
+        }
+        return installed;
+    }
+
+    void defineAll(Environment globals) {
+        for (Map.Entry<String, LoxCallable> entry : functions.entrySet()) {
+            globals.define(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // The pure natives whose global a program leaves alone, so every call
+    // of the name calls the native.
+    Map<String, NativeFunction> pure(Set<String> rebound) {
+        Map<String, NativeFunction> pure = new HashMap<>();
+        for (Map.Entry<String, LoxCallable> entry : functions.entrySet()) {
+            if (entry.getValue() instanceof NativeFunction &&
+                ((NativeFunction)entry.getValue()).isPure() &&
+                !rebound.contains(entry.getKey())) {
+                pure.put(entry.getKey(), (NativeFunction)entry.getValue());
+            }
+        }
+        return pure;
+    }
+}
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// A pure native from one or two numbers to a number, either a Unary or a
+// Binary. Besides the usual boxed entry points it has an unboxed apply(),
+// which the tree-walker calls directly when such a call is an operand of
+// arithmetic, without boxing the arguments or the result.
+public abstract class NumberFunction implements NativeFunction {
+    public abstract static class Unary extends NumberFunction {
+        protected Unary() {}
+
+        public abstract double apply(double a);
+
+        @Override
+        public final int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call1(interpreter, arguments.get(0));
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a) {
+            return apply(number(a));
+        }
+    }
+
+    public abstract static class Binary extends NumberFunction {
+        protected Binary() {}
+
+        public abstract double apply(double a, double b);
+
+        @Override
+        public final int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call2(interpreter, arguments.get(0), arguments.get(1));
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a, Object b) {
+            return apply(number(a), number(b));
+        }
+    }
+
+    // Only Unary and Binary extend it.
+    private NumberFunction() {}
+
+    public static Unary of(DoubleUnaryOperator operator) {
+        return new Unary() {
+            @Override
+            public double apply(double a) {
+                return operator.applyAsDouble(a);
+            }
+        };
+    }
+
+    public static Binary of(DoubleBinaryOperator operator) {
+        return new Binary() {
+            @Override
+            public double apply(double a, double b) {
+                return operator.applyAsDouble(a, b);
+            }
+        };
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    static double number(Object value) {
+        if (value instanceof Double) return (double)value;
+        throw new NativeError("Arguments must be numbers.");
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
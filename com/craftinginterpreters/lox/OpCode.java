@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+// Instruction set of the bytecode VM. Operands follow the opcode byte and are
+// noted next to each instruction; u16 operands are stored big-endian.
+final class OpCode {
+    static final byte CONSTANT        = 0;  // u16 constant index
+    static final byte NIL             = 1;
+    static final byte TRUE            = 2;
+    static final byte FALSE           = 3;
+    static final byte POP             = 4;
+    static final byte GET_LOCAL       = 5;  // u16 frame slot
+    static final byte SET_LOCAL       = 6;  // u16 frame slot
+    static final byte DEFINE_LOCAL    = 7;  // u16 frame slot
+    static final byte GET_GLOBAL      = 8;  // u16 name constant
+    static final byte SET_GLOBAL      = 9;  // u16 name constant
+    static final byte DEFINE_GLOBAL   = 10; // u16 name constant
+    static final byte EQUAL           = 11;
+    static final byte NOT_EQUAL       = 12;
+    static final byte GREATER         = 13;
+    static final byte GREATER_EQUAL   = 14;
+    static final byte LESS            = 15;
+    static final byte LESS_EQUAL      = 16;
+    static final byte ADD             = 17;
+    static final byte SUBTRACT        = 18;
+    static final byte MULTIPLY        = 19;
+    static final byte DIVIDE          = 20;
+    static final byte NOT             = 21;
+    static final byte NEGATE          = 22;
+    static final byte JUMP            = 23; // u16 forward offset
+    static final byte JUMP_IF_FALSE   = 24; // u16 forward offset, leaves condition
+    static final byte JUMP_IF_TRUE    = 25; // u16 forward offset, leaves condition
+    static final byte LOOP            = 26; // u16 backward offset
+    static final byte CALL            = 27; // u8 argument count
+    static final byte CLOSURE         = 28; // u16 function constant
+    static final byte CLASS           = 29; // u16 name constant, u8 method count, u8 has superclass
+    static final byte PUSH_SCOPE      = 30; // u16 slot count
+    static final byte POP_SCOPE       = 31;
+    static final byte RETURN          = 32;
+    static final byte TAIL_CALL       = 33; // u8 argument count, followed by RETURN
+    static final byte GET_PROPERTY    = 34; // u16 PropertyCache constant
+    static final byte SET_PROPERTY    = 35; // u16 PropertyCache constant
+    static final byte INVOKE          = 36; // u16 PropertyCache constant, u8 argument count
+    static final byte GET_SUPER       = 37;
+    static final byte GET_INDEX       = 38;
+    static final byte SET_INDEX       = 39;
+    static final byte GET_CAPTURED    = 40; // u16 Environment depth, u16 slot
+    static final byte SET_CAPTURED    = 41; // u16 Environment depth, u16 slot
+    static final byte DEFINE_CAPTURED = 42;
+
+    private OpCode() {}
+}
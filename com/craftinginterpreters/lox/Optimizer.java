@@ -0,0 +1,490 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Rewrites a resolved syntax tree before it is run. Nodes are rebuilt only
+// when one of their children changed, and rebuilt nodes carry over what the
+// Resolver recorded on the originals.
+//
+// Level 1 folds operators over literals, collapses groupings and drops
+// branches, loops and statements that can never run. Level 2 additionally
+// simplifies arithmetic identities on operands known to be numbers and
+// short-circuits logical operators with a constant left side.
+//
+// Calls of pure natives with literal arguments are folded at every level but
+// 0, calling the native while optimizing.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static final int DEFAULT_LEVEL = 1;
+    static final int MAX_LEVEL = 2;
+
+    private final int level;
+    // Natives whose calls can be folded, see Natives.pure().
+    private final Map<String, NativeFunction> pureNatives;
+
+    Optimizer(int level, Map<String, NativeFunction> pureNatives) {
+        this.level = level;
+        this.pureNatives = pureNatives;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        if (level == 0) return statements;
+        return optimizeAll(statements);
+    }
+
+    /// Stmt.Visitor implementation
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.slotCount = stmt.slotCount;
+        block.onStack = stmt.onStack;
+        block.frameSize = stmt.frameSize;
+        block.scoped = stmt.scoped;
+        return block;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function optimized = (Stmt.Function)method.accept(this);
+            changed |= optimized != method;
+            methods.add(optimized);
+        }
+        if (!changed) return stmt;
+        return new Stmt.Class(stmt.name, stmt.superclass, methods);
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slotCount = stmt.slotCount;
+        function.declaresClosures = stmt.declaresClosures;
+        function.frameSize = stmt.frameSize;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimizeCondition(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        if (condition instanceof Expr.Literal) {
+            // Branches are statements, not declarations, so lifting one out
+            // of the if can't change which scope a variable lands in.
+            Stmt taken = Interpreter.isTruthy(((Expr.Literal)condition).value)
+                ? thenBranch
+                : elseBranch;
+            return taken != null ? taken : EMPTY;
+        }
+
+        if (condition == stmt.condition &&
+            thenBranch == stmt.thenBranch &&
+            elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.frameSlot = stmt.frameSlot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimizeCondition(stmt.condition);
+        if (condition instanceof Expr.Literal &&
+            !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            return EMPTY;
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Expr condition = optimizeCondition(stmt.condition);
+        if (condition instanceof Expr.Literal &&
+            !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            return EMPTY;
+        }
+
+        Stmt body = optimize(stmt.body);
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+        if (condition == stmt.condition &&
+            body == stmt.body &&
+            increment == stmt.increment) {
+            return stmt;
+        }
+        return new Stmt.For(condition, body, increment);
+    }
+
+    /// Expr.Visitor implementation
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.frameSlot = expr.frameSlot;
+        assign.heapDepth = expr.heapDepth;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator.type,
+                ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if (folded != null) return folded;
+        }
+
+        if (level >= 2) {
+            Expr simplified = simplify(expr.operator.type, left, right);
+            if (simplified != null) return simplified;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>();
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+
+        Expr folded = foldCall(callee, arguments);
+        if (folded != null) return folded;
+
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if (object == expr.object && index == expr.index) return expr;
+        return new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && index == expr.index && value == expr.value) return expr;
+        return new Expr.SetIndex(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Precedence is already encoded in the shape of the tree.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // A logical operator yields one of its operands, so a constant left
+        // side decides which one without evaluating anything else.
+        if (level >= 2 && left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            switch (expr.operator.type) {
+                case BANG:
+                    return new Expr.Literal(!Interpreter.isTruthy(value));
+                case MINUS:
+                    if (value instanceof Double) return new Expr.Literal(-(double)value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // -(-x) is x as long as x is a number; otherwise the inner negation
+        // has an error to report.
+        if (level >= 2 &&
+            expr.operator.type == TokenType.MINUS &&
+            right instanceof Expr.Unary &&
+            ((Expr.Unary)right).operator.type == TokenType.MINUS &&
+            isNumber(((Expr.Unary)right).right)) {
+            return ((Expr.Unary)right).right;
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    /// Helpers
+
+    // Stands in for a statement that was optimized away where the tree still
+    // needs one, like the body of an if.
+    private static final Stmt EMPTY = emptyBlock();
+
+    private static Stmt emptyBlock() {
+        Stmt.Block block = new Stmt.Block(Collections.emptyList());
+        block.scoped = false;
+        return block;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // Returns the original list when nothing in it changed.
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            changed |= result != statement;
+            if (result != EMPTY) optimized.add(result);
+
+            // Anything after a jump is unreachable.
+            if (result instanceof Stmt.Return ||
+                result instanceof Stmt.Break ||
+                result instanceof Stmt.Continue) {
+                changed |= optimized.size() < statements.size();
+                break;
+            }
+        }
+        return changed ? optimized : statements;
+    }
+
+    // Conditions are only tested for truthiness, so a double negation in
+    // one can be dropped.
+    private Expr optimizeCondition(Expr condition) {
+        Expr optimized = optimize(condition);
+        if (level >= 2) {
+            while (isNot(optimized) && isNot(((Expr.Unary)optimized).right)) {
+                optimized = ((Expr.Unary)((Expr.Unary)optimized).right).right;
+            }
+        }
+        return optimized;
+    }
+
+    private static boolean isNot(Expr expr) {
+        return expr instanceof Expr.Unary &&
+            ((Expr.Unary)expr).operator.type == TokenType.BANG;
+    }
+
+    // Evaluates an operator over two constants the same way the Interpreter
+    // would, or returns null when it would report an error instead.
+    private static Expr fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL: return new Expr.Literal(!Interpreter.isEqual(left, right));
+            case EQUAL_EQUAL: return new Expr.Literal(Interpreter.isEqual(left, right));
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) {
+                    return new Expr.Literal((double)left + (double)right);
+                }
+                if ((left instanceof String || right instanceof String) &&
+                    left != null && right != null) {
+                    return new Expr.Literal(left.toString() + right.toString());
+                }
+                return null;
+            default:
+                break;
+        }
+
+        if (!(left instanceof Double) || !(right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+            default: return null;
+        }
+    }
+
+    // Calls a pure native on literal arguments, returning null if the call
+    // fails or has a result that is no literal, so it runs as usual.
+    private Expr foldCall(Expr callee, List<Expr> arguments) {
+        if (!(callee instanceof Expr.Variable) || ((Expr.Variable)callee).depth >= 0) return null;
+        NativeFunction function = pureNatives.get(((Expr.Variable)callee).name.lexeme);
+        if (function == null || function.arity() != arguments.size()) return null;
+
+        List<Object> values = new ArrayList<>();
+        for (Expr argument : arguments) {
+            if (!(argument instanceof Expr.Literal)) return null;
+            values.add(((Expr.Literal)argument).value);
+        }
+
+        Object result;
+        try {
+            result = function.call(null, values);
+        } catch (RuntimeError error) {
+            return null;
+        }
+        if (result == null || result instanceof Double ||
+            result instanceof String || result instanceof Boolean) {
+            return new Expr.Literal(result);
+        }
+        return null;
+    }
+
+    // Identities that hold for every number. Each one needs the surviving
+    // operand to be a number, since otherwise the operator would have
+    // reported an error. x + 0 is left alone because -0 + 0 is 0.
+    private static Expr simplify(TokenType operator, Expr left, Expr right) {
+        switch (operator) {
+            case STAR:
+                if (isConstant(right, 1) && isNumber(left)) return left;
+                if (isConstant(left, 1) && isNumber(right)) return right;
+                return null;
+            case SLASH:
+                if (isConstant(right, 1) && isNumber(left)) return left;
+                return null;
+            case MINUS:
+                if (isConstant(right, 0) && isNumber(left)) return left;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isConstant(Expr expr, double value) {
+        return expr instanceof Expr.Literal &&
+            Double.valueOf(value).equals(((Expr.Literal)expr).value);
+    }
+
+    // Whether the expression either yields a number or reports an error.
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                    return true;
+                case PLUS:
+                    return isNumber(binary.left) && isNumber(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+}
@@ -10,11 +10,13 @@ class Parser {
 
 
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
     private int current_token_idx = 0;
 
     
-     Parser(List<Token> tokens) {
+     Parser(List<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     List<Stmt> parse() {
@@ -39,6 +41,13 @@ class Parser {
 
     private Stmt.Class classDeclaration() {
         Token name = consume(IDENTIFIER, "Expect class name.");
+
+        Expr.Variable superclass = null;
+        if (match(LESS)) {
+            consume(IDENTIFIER, "Expect superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
+
         consume(LEFT_BRACE, "Expected '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
@@ -47,7 +56,7 @@ class Parser {
         }
         consume(RIGHT_BRACE, "Expected '}' after class body.");
 
-        return new Stmt.Class(name, methods);
+        return new Stmt.Class(name, superclass, methods);
     }
     
     private Stmt statement() {
@@ -55,6 +64,8 @@ class Parser {
         if (match(FOR)) return forStatement();
         if (match(WHILE)) return whileStatement();
         if (match(RETURN)) return returnStatement();
+        if (match(BREAK)) return breakStatement();
+        if (match(CONTINUE)) return continueStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
         
         return expressionStatement();
@@ -84,21 +95,12 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
         Stmt body = statement();
 
-        // If there is an increment then replace the body with a block that executes the body
-        // followed by the increment expression.
-        if (increment != null) {
-            body = new Stmt.Block(
-                Arrays.asList(
-                    body,
-                    new Stmt.Expression(increment)
-                )
-            );
-        }
-
+        // The increment is kept on the loop rather than appended to the body, so that
+        // 'continue' still runs it without a block around each iteration.
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.For(condition, body, increment);
 
-        // If there is an initializer, then wrap the Stmt.While statement in a block that
+        // If there is an initializer, then wrap the Stmt.For statement in a block that
         // executes the initializer once before the body.
         if (initializer != null) {
             body = new Stmt.Block(
@@ -147,6 +149,18 @@ class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt.Break breakStatement() {
+        Token keyword = previous();
+        consume_semicolon();
+        return new Stmt.Break(keyword);
+    }
+
+    private Stmt.Continue continueStatement() {
+        Token keyword = previous();
+        consume_semicolon();
+        return new Stmt.Continue(keyword);
+    }
+
     private Stmt.Var varDeclaration() {
         Token name = consume(IDENTIFIER, "Expect variable name.");
         
@@ -212,6 +226,12 @@ class Parser {
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).name;
                 return new Expr.Assign(name, value);
+            } else if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get)expr;
+                return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -303,6 +323,13 @@ class Parser {
         while (true) {
             if (match(LEFT_PAREN)) {
                 expr = finishCall(expr);
+            } else if (match(DOT)) {
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -338,6 +365,15 @@ class Parser {
             return new Expr.Literal(value.literal);
         } 
 
+        if (match(SUPER)) {
+            Token keyword = previous();
+            consume(DOT, "Expect '.' after 'super'.");
+            Token method = consume(IDENTIFIER, "Expect superclass method name.");
+            return new Expr.Super(keyword, method);
+        }
+
+        if (match(THIS)) return new Expr.This(previous());
+
         if (match(IDENTIFIER)) {
             return new Expr.Variable(previous());
         }
@@ -396,7 +432,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
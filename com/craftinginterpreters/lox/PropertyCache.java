@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+// Remembers the shape a Get or Set site saw last and what the property is for
+// instances of it: the slot of a field, or the method of their class. Another
+// instance of the same shape has the field in the same slot, or lacks it and
+// has the same class, so the site skips looking the name up.
+//
+// The syntax tree, and so the cache, is shared by every context running the
+// program. What the cache knows is one immutable Entry replaced as a whole,
+// so a thread sees either the old or the new entry and at worst misses.
+class PropertyCache {
+    private static final class Entry {
+        final Shape shape;
+        final int slot;
+        // Method the property names for shape, null when it is a field.
+        final LoxCallable method;
+        // Shape of the instance once a Set has stored the field, a transition
+        // away from shape if the field is new.
+        final Shape next;
+
+        Entry(Shape shape, int slot, LoxCallable method, Shape next) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.next = next;
+        }
+    }
+
+    private static final Entry EMPTY = new Entry(null, -1, null, null);
+
+    private Entry entry = EMPTY;
+
+    Object get(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance)object;
+        Entry cached = entry;
+        if (instance.shape != cached.shape) cached = lookup(instance, name);
+        return cached.method == null ? instance.fields[cached.slot] : cached.method.bind(instance);
+    }
+
+    // Returns the method a call of the property calls, so the caller can call
+    // it on the instance directly. Returns null if the property is a field or
+    // object is no instance, leaving those to get().
+    LoxCallable method(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) return null;
+        LoxInstance instance = (LoxInstance)object;
+        Entry cached = entry;
+        if (instance.shape != cached.shape) cached = lookup(instance, name);
+        return cached.method;
+    }
+
+    // Fields shadow methods. Methods don't change once the class exists,
+    // see LoxClass.
+    private Entry lookup(LoxInstance instance, Token name) {
+        int index = instance.shape.slot(name.lexeme);
+        LoxCallable found = null;
+        if (index < 0) {
+            found = instance.klass.findMethod(name.lexeme);
+            if (found == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+        }
+        Entry looked = new Entry(instance.shape, index, found, null);
+        entry = looked;
+        return looked;
+    }
+
+    void set(Object object, Token name, Object value) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        LoxInstance instance = (LoxInstance)object;
+        Entry cached = entry;
+        if (instance.shape != cached.shape || cached.next == null) {
+            Shape shape = instance.shape;
+            int slot = shape.slot(name.lexeme);
+            Shape next = shape;
+            if (slot < 0) {
+                next = shape.add(name.lexeme);
+                slot = shape.size;
+            }
+            cached = new Entry(shape, slot, null, next);
+            entry = cached;
+        }
+        instance.put(cached.next, cached.slot, value);
+    }
+}
@@ -0,0 +1,292 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Finds the top-level functions of a program whose result only depends on
+// their arguments, so calls with the same arguments can share one result.
+// A function qualifies when it assigns no global, declares no functions or
+// classes, and only calls or reads global functions that qualify too, or
+// natives declared pure. Every other native is assumed to have side effects.
+//
+// Globals are judged by the statements at hand, which is why Lox only runs
+// this on whole scripts and not on each line of the REPL.
+class Purity implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private boolean impure = false;
+    private final Set<String> globalReads = new HashSet<>();
+    private final Set<String> globalWrites = new HashSet<>();
+
+    private Purity() {}
+
+    // Names of the globals a program declares or assigns.
+    static Set<String> rebound(List<Stmt> statements) {
+        Purity program = new Purity();
+        program.scan(statements);
+        Set<String> names = new HashSet<>(program.globalWrites);
+        for (Stmt statement : statements) {
+            Token name = declaredName(statement);
+            if (name != null) names.add(name.lexeme);
+        }
+        return names;
+    }
+
+    // Attaches a Memo of the given capacity to each pure function and returns
+    // them all. pureNatives are the natives the program can call and stay
+    // pure, see Natives.pure().
+    static List<Memo> memoize(List<Stmt> statements, int capacity, Set<String> pureNatives) {
+        Purity program = new Purity();
+        program.scan(statements);
+
+        // Only a name declared once and never assigned is known to refer to
+        // the same function for the whole run.
+        Map<String, Integer> declarations = new HashMap<>();
+        for (Stmt statement : statements) {
+            Token name = declaredName(statement);
+            if (name != null) declarations.merge(name.lexeme, 1, Integer::sum);
+        }
+
+        Map<String, Stmt.Function> functions = new HashMap<>();
+        Map<String, Purity> bodies = new HashMap<>();
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) continue;
+            Stmt.Function function = (Stmt.Function)statement;
+            String name = function.name.lexeme;
+            if (declarations.get(name) != 1 || program.globalWrites.contains(name)) continue;
+
+            Purity body = new Purity();
+            body.scan(function.body);
+            if (body.impure) continue;
+            functions.put(name, function);
+            bodies.put(name, body);
+        }
+
+        // Drops functions that use an impure one until none is left to drop.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String name : new ArrayList<>(functions.keySet())) {
+                Set<String> reads = new HashSet<>(bodies.get(name).globalReads);
+                reads.removeAll(pureNatives);
+                if (!functions.keySet().containsAll(reads)) {
+                    functions.remove(name);
+                    changed = true;
+                }
+            }
+        }
+
+        List<Memo> memos = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (!functions.containsValue(statement)) continue;
+            Stmt.Function function = (Stmt.Function)statement;
+            function.memo = new Memo(function.name.lexeme, capacity);
+            memos.add(function.memo);
+        }
+        return memos;
+    }
+
+    private static Token declaredName(Stmt statement) {
+        if (statement instanceof Stmt.Var) return ((Stmt.Var)statement).name;
+        if (statement instanceof Stmt.Function) return ((Stmt.Function)statement).name;
+        if (statement instanceof Stmt.Class) return ((Stmt.Class)statement).name;
+        return null;
+    }
+
+    /// Stmt.Visitor implementation
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scan(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        impure = true;
+        for (Stmt.Function method : stmt.methods) {
+            scan(method.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        impure = true;
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        scan(stmt.condition);
+        scan(stmt.thenBranch);
+        if (stmt.elseBranch != null) scan(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) scan(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) scan(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        scan(stmt.condition);
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        scan(stmt.condition);
+        scan(stmt.body);
+        if (stmt.increment != null) scan(stmt.increment);
+        return null;
+    }
+
+    /// Expr.Visitor implementation
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth < 0) {
+            impure = true;
+            globalWrites.add(expr.name.lexeme);
+        }
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // A local callee could be any function, so only global ones, whose
+        // purity is checked separately, can be called.
+        if (!(expr.callee instanceof Expr.Variable) ||
+            ((Expr.Variable)expr.callee).depth >= 0) {
+            impure = true;
+        }
+        scan(expr.callee);
+        for (Expr argument : expr.arguments) {
+            scan(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        scan(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        scan(expr.object);
+        scan(expr.value);
+        return null;
+    }
+
+    // Lists are never part of a memoized call's key, so a pure function may
+    // still fill in a list it made itself.
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        scan(expr.object);
+        scan(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        scan(expr.object);
+        scan(expr.index);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        scan(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) globalReads.add(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        scan(expr.right);
+        return null;
+    }
+
+    /// Helpers
+
+    private void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void scan(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void scan(Expr expr) {
+        expr.accept(this);
+    }
+}
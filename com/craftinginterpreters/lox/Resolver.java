@@ -1,37 +1,153 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
 import com.craftinginterpreters.lox.Stmt.Function;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
+    // Numbers the names bound at global scope, see Token.global.
+    private final Symbols globals;
+    private final int thisSymbol;
+    private final int superSymbol;
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private ClassType currentClass = ClassType.NONE;
+    // Loops enclosing the current statement within the current function.
+    private int loopDepth = 0;
+
+    // Takes the symbols the Scanner numbered the program's identifiers with
+    // and the engine's globals.
+    Resolver(ErrorReporter reporter, Symbols symbols, Symbols globals) {
+        this.reporter = reporter;
+        this.globals = globals;
+        thisSymbol = symbols.intern("this");
+        superSymbol = symbols.intern("super");
     }
 
     private enum FunctionType {
         NONE,
-        FUNCTION
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private enum ClassType {
+        NONE,
+        CLASS,
+        SUBCLASS
+    }
+
+    // A declared local and the frame slot it will occupy at runtime.
+    private static class Local {
+        final int slot;
+        // Slot on the Interpreter's frame stack, -1 if the scope is captured.
+        final int frameSlot;
+        boolean defined = false;
+
+        Local(int slot, int frameSlot) {
+            this.slot = slot;
+            this.frameSlot = frameSlot;
+        }
+    }
+
+    // Stack frame shared by an uncaptured scope and the uncaptured scopes
+    // nested in it within the same function.
+    private static class Frame {
+        int size = 0;
+    }
+
+    // Locals are looked up by the symbol of their name. Scopes hold few of
+    // them, so a linear scan of the symbols beats hashing.
+    private static class Scope {
+        private int[] symbols = new int[4];
+        private Local[] locals = new Local[4];
+        int size = 0;
+        // Null for a scope that a function or class declared inside it can
+        // capture, whose locals stay in a heap-allocated Environment.
+        final Frame frame;
+        // Frame slot of the scope's first local.
+        final int base;
+
+        Scope(Frame frame, int base) {
+            this.frame = frame;
+            this.base = base;
+        }
+
+        boolean onStack() {
+            return frame != null;
+        }
+
+        Local get(int symbol) {
+            for (int i = 0; i < size; i++) {
+                if (symbols[i] == symbol) return locals[i];
+            }
+            return null;
+        }
+
+        void put(int symbol, Local local) {
+            if (size == symbols.length) {
+                symbols = Arrays.copyOf(symbols, size * 2);
+                locals = Arrays.copyOf(locals, size * 2);
+            }
+            symbols[size] = symbol;
+            locals[size++] = local;
+        }
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
         declare(stmt.name);
         define(stmt.name);
+
+        // Methods of a subclass find 'super' in a scope around the one for
+        // 'this', which the Interpreter creates along with the class.
+        if (stmt.superclass != null) {
+            if (stmt.name.symbol == stmt.superclass.name.symbol) {
+                reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+            beginImplicitScope(superSymbol);
+        }
+
+        // Methods find 'this' in a scope of its own around them, which binding
+        // a method to an instance provides at runtime, see LoxFunction.bind().
+        beginImplicitScope(thisSymbol);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                ? FunctionType.INITIALIZER
+                : FunctionType.METHOD;
+            resolveFunction(method, type);
+        }
+        endScope();
+
+        if (stmt.superclass != null) endScope();
+        currentClass = enclosingClass;
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        // A block that declares nothing runs in the scope around it.
+        if (!declaresLocals(stmt.statements)) {
+            stmt.scoped = false;
+            resolve(stmt.statements);
+            return null;
+        }
+
+        Scope scope = beginScope(!declaresClosures(stmt.statements), false);
         resolve(stmt.statements);
+        stmt.slotCount = scope.size;
+        stmt.onStack = scope.onStack();
+        // A block that starts a new stack frame has to push it.
+        if (scope.onStack() && !inFrame(scopes.size() - 2)) {
+            stmt.frameSize = scope.frame.size;
+        }
         endScope();
         return null;
     }
@@ -39,6 +155,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         declare(stmt.name);
+        if (!scopes.isEmpty()) {
+            Local local = scopes.peek().get(stmt.name.symbol);
+            if (local != null) stmt.frameSlot = local.frameSlot;
+        }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -49,19 +169,38 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
-            scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-                Lox.error(expr.name,
+            scopes.peek().get(expr.name.symbol) != null &&
+            !scopes.peek().get(expr.name.symbol).defined) {
+                reporter.error(expr.name,
                     "Can't read local variable in its own initializer.");
             }
 
-            resolveLocal(expr, expr.name);
+            int scope = resolveLocal(expr.name);
+            if (scope >= 0) {
+                Local local = scopes.get(scope).get(expr.name.symbol);
+                expr.depth = scopes.size() - 1 - scope;
+                expr.slot = local.slot;
+                expr.frameSlot = local.frameSlot;
+                if (local.frameSlot < 0) expr.heapDepth = heapDepth(scope);
+            } else {
+                bindGlobal(expr.name);
+            }
             return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        int scope = resolveLocal(expr.name);
+        if (scope >= 0) {
+            Local local = scopes.get(scope).get(expr.name.symbol);
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = local.slot;
+            expr.frameSlot = local.frameSlot;
+            if (local.frameSlot < 0) expr.heapDepth = heapDepth(scope);
+        } else {
+            bindGlobal(expr.name);
+        }
         return null;
     }
 
@@ -90,17 +229,51 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (currentFunction == FunctionType.INITIALIZER && stmt.value != null) {
+            reporter.error(stmt.keyword, "Can't return a value from an initializer.");
         }
         if (stmt.value != null)
             resolve(stmt.value);
+        // The function has nothing left to do once the call returns, so the
+        // Interpreter can run the call in place of the current one.
+        stmt.tailCall = stmt.value instanceof Expr.Call;
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
+        loopDepth++;
+        resolve(stmt.body);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        resolve(stmt.condition);
+        loopDepth++;
         resolve(stmt.body);
+        loopDepth--;
+        if (stmt.increment != null) resolve(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loopDepth == 0) {
+            reporter.error(stmt.keyword, "Can't use 'break' outside of a loop.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (loopDepth == 0) {
+            reporter.error(stmt.keyword, "Can't use 'continue' outside of a loop.");
+        }
         return null;
     }
 
@@ -122,6 +295,67 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+
+        int scope = resolveLocal(expr.keyword);
+        expr.depth = scopes.size() - 1 - scope;
+        expr.slot = scopes.get(scope).get(thisSymbol).slot;
+        expr.heapDepth = heapDepth(scope);
+        return null;
+    }
+
+    // The scope of 'this' is always the one right inside that of 'super', so
+    // the engines find the instance one Environment closer than this.
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
+            return null;
+        } else if (currentClass != ClassType.SUBCLASS) {
+            reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            return null;
+        }
+
+        int scope = resolveLocal(expr.keyword);
+        expr.depth = scopes.size() - 1 - scope;
+        expr.slot = scopes.get(scope).get(superSymbol).slot;
+        expr.heapDepth = heapDepth(scope);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
@@ -163,20 +397,99 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        int enclosingLoopDepth = loopDepth;
+        loopDepth = 0;
 
-        beginScope();
+        function.declaresClosures = declaresClosures(function.body);
+        Scope scope = beginScope(!function.declaresClosures, true);
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
+        function.slotCount = scope.size;
+        if (scope.onStack()) function.frameSize = scope.frame.size;
         endScope();
 
         currentFunction = enclosingFunction;
+        loopDepth = enclosingLoopDepth;
+    }
+
+    // Functions and classes declared inside a scope can outlive it and keep
+    // its locals alive.
+    private static boolean declaresClosures(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (declaresClosures(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean declaresClosures(Stmt stmt) {
+        if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+        if (stmt instanceof Stmt.Block) return declaresClosures(((Stmt.Block)stmt).statements);
+        if (stmt instanceof Stmt.While) return declaresClosures(((Stmt.While)stmt).body);
+        if (stmt instanceof Stmt.For) return declaresClosures(((Stmt.For)stmt).body);
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            return declaresClosures(ifStmt.thenBranch) ||
+                (ifStmt.elseBranch != null && declaresClosures(ifStmt.elseBranch));
+        }
+        return false;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+    private static boolean declaresLocals(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var ||
+                statement instanceof Stmt.Function ||
+                statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // An uncaptured scope continues the frame of the scope around it when
+    // that one is on the stack too and in the same function, and otherwise
+    // starts a frame of its own.
+    private Scope beginScope(boolean onStack, boolean function) {
+        Scope scope;
+        if (!onStack) {
+            scope = new Scope(null, 0);
+        } else if (!function && inFrame(scopes.size() - 1)) {
+            Scope enclosing = scopes.peek();
+            scope = new Scope(enclosing.frame, enclosing.base + enclosing.size);
+        } else {
+            scope = new Scope(new Frame(), 0);
+        }
+        scopes.push(scope);
+        return scope;
+    }
+
+    // Begins a captured scope holding a single variable the engines define
+    // themselves.
+    private void beginImplicitScope(int symbol) {
+        Scope scope = beginScope(false, false);
+        Local local = new Local(0, -1);
+        local.defined = true;
+        scope.put(symbol, local);
+    }
+
+    private boolean inFrame(int scope) {
+        return scope >= 0 && scopes.get(scope).onStack();
+    }
+
+    // Number of Environments between the innermost scope and the captured
+    // scope at the given index, skipping the scopes kept on the stack.
+    private int heapDepth(int scope) {
+        int depth = 0;
+        for (int i = scope + 1; i < scopes.size(); i++) {
+            if (!scopes.get(i).onStack()) depth++;
+        }
+        return depth;
+    }
+
+    private void bindGlobal(Token name) {
+        name.global = globals.intern(name.lexeme);
     }
 
     private void endScope() {
@@ -184,28 +497,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+        if (scopes.isEmpty()) {
+            bindGlobal(name);
+            return;
+        }
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name,
+        Scope scope = scopes.peek();
+        if (scope.get(name.symbol) != null) {
+            reporter.error(name,
                 "Already a variable with this name in this scope.");
+            return;
+        }
+        int slot = scope.size;
+        int frameSlot = -1;
+        if (scope.onStack()) {
+            frameSlot = scope.base + slot;
+            scope.frame.size = Math.max(scope.frame.size, frameSlot + 1);
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.symbol, new Local(slot, frameSlot));
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        Local local = scopes.peek().get(name.symbol);
+        if (local != null) local.defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Returns the index of the innermost scope declaring the name, or -1 when
+    // it is left for the globals.
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return; 
+            if (scopes.get(i).get(name.symbol) != null) {
+                return i;
             }
         }
+        return -1;
     }
 }
 
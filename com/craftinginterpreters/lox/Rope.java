@@ -0,0 +1,93 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A long Lox string built by '+', kept as a tree of the pieces it was
+// concatenated from until something needs its characters. Appending to a
+// string in a loop then costs the length of the piece instead of the whole
+// string so far. Printing, comparing or hashing goes through toString(),
+// which flattens the tree once and keeps the result.
+//
+// Lox strings are either a String or a Rope, so code that has to tell a
+// string from other values checks for CharSequence.
+final class Rope implements CharSequence {
+    // Concatenations shorter than this are copied into a plain String, and
+    // short pieces appended to a rope are merged with the one before, so a
+    // string built a character at a time doesn't become a node per character.
+    private static final int SHORT = 256;
+
+    // Both null once the rope has been flattened.
+    private CharSequence left;
+    private CharSequence right;
+    private String flat = null;
+    private final int length;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    // Concatenates the operands of a '+' of which at least one is a string.
+    static CharSequence concat(Object left, Object right) {
+        return concat(
+            left instanceof CharSequence ? (CharSequence)left : left.toString(),
+            right instanceof CharSequence ? (CharSequence)right : right.toString());
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() + right.length() < SHORT) return left.toString() + right;
+        if (left instanceof Rope && right.length() < SHORT) {
+            Rope rope = (Rope)left;
+            if (rope.flat == null && rope.right.length() + right.length() < SHORT) {
+                return new Rope(rope.left, rope.right.toString() + right);
+            }
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat != null) return flat;
+
+        // Fills the characters in from the end with an explicit stack, since
+        // a string appended to in a loop is a tree as deep as the loop ran.
+        char[] chars = new char[length];
+        int end = length;
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope && ((Rope)piece).flat == null) {
+                Rope rope = (Rope)piece;
+                pending.push(rope.left);
+                pending.push(rope.right);
+            } else {
+                String text = piece.toString();
+                end -= text.length();
+                text.getChars(0, text.length(), chars, end);
+            }
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+}
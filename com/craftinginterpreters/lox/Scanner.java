@@ -13,7 +13,9 @@ class Scanner {
     static {
         keywords = new HashMap<>();
         keywords.put("and", AND);
+        keywords.put("break", BREAK);
         keywords.put("class", CLASS);
+        keywords.put("continue", CONTINUE);
         keywords.put("else", ELSE);
         keywords.put("false", FALSE);
         keywords.put("for", FOR);
@@ -30,13 +32,17 @@ class Scanner {
     }
 
     private final String source;
+    private final ErrorReporter reporter;
+    private final Symbols symbols;
     private final List<Token> tokens = new ArrayList<>();
     private int token_start_idx = 0;
     private int current_char_idx = 0;
     private int line_num = 1;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter, Symbols symbols) {
         this.source = source;
+        this.reporter = reporter;
+        this.symbols = symbols;
     }
 
     List<Token> scanTokens() {
@@ -57,6 +63,8 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -98,7 +106,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line_num, "Unexpected character: '" + c + "''.");
+                    reporter.error(line_num, "Unexpected character: '" + c + "''.");
                 }
                 break;
         }
@@ -107,10 +115,13 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(token_start_idx, current_char_idx);
+        // Every occurrence of a name shares the interned lexeme instead of
+        // getting a substring of its own.
+        int symbol = symbols.intern(source, token_start_idx, current_char_idx);
+        String text = symbols.name(symbol);
         TokenType type = keywords.get(text);
         if (type == null) type = IDENTIFIER;
-        addToken(type);
+        tokens.add(new Token(type, text, null, line_num, symbol));
     }
 
     private void number() {
@@ -135,7 +146,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line_num, "Unterminated string.");
+            reporter.error(line_num, "Unterminated string.");
             return;
         } else {
             advance(); // The closing ".
@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps the resolved syntax tree of a script in a .loxc file, so running the
+// same script again skips the Scanner, Parser and Resolver. The tree is
+// cached as the Resolver left it, before the Optimizer, so the same file
+// serves every optimization level and set of natives.
+//
+// A file starts with the magic number and the key it was written for: a
+// SHA-256 hash of the source together with the interpreter version and the
+// encoding, see key(). A file whose key doesn't match is stale and ignored,
+// as is one that can't be read or decoded. Writing is best effort, since a
+// script can still run when its directory is read-only.
+final class ScriptCache {
+    private static final byte[] MAGIC = {'L', 'O', 'X', 'C'};
+    // Bump when AstWriter's encoding or the syntax tree changes shape.
+    private static final int FORMAT = 2;
+    private static final int KEY_LENGTH = 32;
+
+    // A single file next to the script, or a directory of files named by
+    // their key.
+    private final Path file;
+    private final Path directory;
+
+    private ScriptCache(Path file, Path directory) {
+        this.file = file;
+        this.directory = directory;
+    }
+
+    // foo.lox is cached in foo.loxc, any other name gets .loxc appended.
+    static ScriptCache beside(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return new ScriptCache(script.resolveSibling(name + ".loxc"), null);
+    }
+
+    static ScriptCache in(Path directory) {
+        return new ScriptCache(null, directory);
+    }
+
+    // The token types are part of the key since their ordinals are what the
+    // file stores.
+    static byte[] key(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((LoxEngine.VERSION + "/" + FORMAT + "/" +
+                Arrays.toString(TokenType.values()) + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException error) {
+            // Every Java platform is required to have SHA-256.
+            throw new AssertionError(error);
+        }
+    }
+
+    // Returns the statements cached for key, with their globals numbered in
+    // globals, or null if there are none.
+    List<Stmt> load(byte[] key, Symbols globals) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path(key));
+        } catch (IOException error) {
+            return null;
+        }
+
+        int header = MAGIC.length + KEY_LENGTH;
+        if (bytes.length < header ||
+            !Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length) ||
+            !Arrays.equals(bytes, MAGIC.length, header, key, 0, KEY_LENGTH)) {
+            return null;
+        }
+        try {
+            return AstReader.read(bytes, header, globals);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException error) {
+            return null;
+        }
+    }
+
+    // Writes to a file of its own and moves it into place, so a script run
+    // while another run of it is storing never reads half a file.
+    void store(byte[] key, List<Stmt> statements) {
+        Path target = path(key);
+        Path temporary = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(MAGIC);
+            bytes.write(key);
+            AstWriter.write(statements, bytes);
+
+            Path parent = target.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            temporary = parent.resolve("." + target.getFileName() + "." +
+                ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp");
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, target,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        } catch (IOException error) {
+            // The script runs the same, only uncached.
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException error) {
+                    // Nothing more to clean up with.
+                }
+            }
+        }
+    }
+
+    private Path path(byte[] key) {
+        if (file != null) return file;
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16));
+            name.append(Character.forDigit(b & 0xf, 16));
+        }
+        return directory.resolve(name.append(".loxc").toString());
+    }
+}
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class of a LoxInstance: which slot of its field array holds each of
+// its fields. Instances that got the same fields in the same order share one
+// shape, so a PropertyCache that remembers a shape and a slot reads the field
+// of any of them after an identity comparison. Every class starts its
+// instances on an empty shape of its own, so a shape also implies the class.
+class Shape {
+    private final Map<String, Integer> slots;
+    // Shapes reached by adding one more field, shared by every instance that
+    // adds it.
+    private final Map<String, Shape> transitions = new HashMap<>();
+    final int size;
+
+    Shape() {
+        this.slots = Collections.emptyMap();
+        this.size = 0;
+    }
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+        this.size = slots.size();
+    }
+
+    // Returns the slot of the field, or -1 when instances of this shape
+    // don't have it.
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // Returns the shape of an instance of this shape after adding the field,
+    // which is stored in the slot at index size.
+    Shape add(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, size);
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -7,8 +7,11 @@ import java.util.List;
 abstract class Stmt {
  interface Visitor<R> {
     R visitBlockStmt(Block stmt);
+    R visitBreakStmt(Break stmt);
     R visitClassStmt(Class stmt);
+    R visitContinueStmt(Continue stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitWhileStmt(While stmt);
@@ -27,11 +30,30 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+
+    int slotCount = 0;
+    boolean onStack = false;
+    int frameSize = 0;
+    boolean scoped = true;
+ }
+
+ static class Break extends Stmt {
+    Break(Token keyword) {
+        this.keyword = keyword;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitBreakStmt(this);
+    }
+
+    final Token keyword;
  }
 
  static class Class extends Stmt {
-    Class(Token name, List<Stmt.Function> methods) {
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
         this.name = name;
+        this.superclass = superclass;
         this.methods = methods;
     }
 
@@ -41,9 +63,23 @@ abstract class Stmt {
     }
 
     final Token name;
+    final Expr.Variable superclass;
     final List<Stmt.Function> methods;
  }
 
+ static class Continue extends Stmt {
+    Continue(Token keyword) {
+        this.keyword = keyword;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitContinueStmt(this);
+    }
+
+    final Token keyword;
+ }
+
  static class Expression extends Stmt {
     Expression(Expr expression) {
         this.expression = expression;
@@ -57,6 +93,23 @@ abstract class Stmt {
     final Expr expression;
  }
 
+ static class For extends Stmt {
+    For(Expr condition, Stmt body, Expr increment) {
+        this.condition = condition;
+        this.body = body;
+        this.increment = increment;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitForStmt(this);
+    }
+
+    final Expr condition;
+    final Stmt body;
+    final Expr increment;
+ }
+
  static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
         this.name = name;
@@ -72,6 +125,13 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+
+    int slotCount = 0;
+    boolean declaresClosures = false;
+    int frameSize = 0;
+    int hotness = 0;
+    volatile JitCode jitCode = null;
+    Memo memo = null;
  }
 
  static class If extends Stmt {
@@ -119,6 +179,8 @@ abstract class Stmt {
 
     final Token keyword;
     final Expr value;
+
+    boolean tailCall = false;
  }
 
  static class Var extends Stmt {
@@ -134,6 +196,8 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    int frameSlot = -1;
  }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+// Reads and writes a[i] for every engine. Lists take whole-number positions
+// within their size, maps take any key but nil.
+final class Subscript {
+    private Subscript() {}
+
+    static Object get(Object target, Object index, Token bracket) {
+        if (target instanceof LoxMap) return ((LoxMap)target).get(index);
+        LoxList list = list(target, bracket);
+        return list.get(list.index(index, bracket));
+    }
+
+    static void set(Object target, Object index, Object value, Token bracket) {
+        if (target instanceof LoxMap) {
+            ((LoxMap)target).put(key(index, bracket), value);
+            return;
+        }
+        LoxList list = list(target, bracket);
+        list.set(list.index(index, bracket), value);
+    }
+
+    static LoxList list(Object target, Token bracket) {
+        if (target instanceof LoxList) return (LoxList)target;
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    static Object key(Object key, Token bracket) {
+        if (key == null) throw new RuntimeError(bracket, "Map keys can't be nil.");
+        return key;
+    }
+}
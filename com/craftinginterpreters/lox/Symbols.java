@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Numbers distinct names densely from zero, so later phases can key names on
+// a small int instead of hashing the lexeme again. Each compilation numbers
+// the identifiers the Scanner sees in a table of its own, sharing the one
+// String stored here between all occurrences of a name. Each LoxEngine
+// numbers the names the Resolver binds at global scope in another, which
+// lasts as long as the engine, so the REPL's lines and every context find a
+// global at the same index.
+final class Symbols {
+    private String[] names = new String[64];
+    private int count = 0;
+    // Open-addressing hash table of symbol + 1, 0 marking an empty bucket.
+    private int[] table = new int[128];
+
+    synchronized int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    // Interns the characters of source from start to end, only copying them
+    // out the first time the name is seen.
+    synchronized int intern(String source, int start, int end) {
+        int symbol = find(source, start, end);
+        if (symbol >= 0) return symbol;
+
+        if (count == names.length) names = Arrays.copyOf(names, count * 2);
+        names[count] = source.substring(start, end);
+        insert(table, names[count].hashCode(), count);
+        count++;
+        if (count * 2 > table.length) rehash();
+        return count - 1;
+    }
+
+    // The symbol of a name, -1 if it has none.
+    synchronized int find(String name) {
+        return find(name, 0, name.length());
+    }
+
+    private int find(String source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+
+        int mask = table.length - 1;
+        for (int bucket = hash & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = table[bucket];
+            if (entry == 0) break;
+            String name = names[entry - 1];
+            if (name.length() == length && source.regionMatches(start, name, 0, length)) {
+                return entry - 1;
+            }
+        }
+        return -1;
+    }
+
+    synchronized String name(int symbol) {
+        return names[symbol];
+    }
+
+    // Number of symbols interned so far, one more than the largest.
+    synchronized int count() {
+        return count;
+    }
+
+    private static void insert(int[] into, int hash, int symbol) {
+        int mask = into.length - 1;
+        int bucket = hash & mask;
+        while (into[bucket] != 0) bucket = (bucket + 1) & mask;
+        into[bucket] = symbol + 1;
+    }
+
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        for (int symbol = 0; symbol < count; symbol++) {
+            insert(grown, names[symbol].hashCode(), symbol);
+        }
+        table = grown;
+    }
+}
@@ -5,12 +5,23 @@ class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // Symbol of an identifier or keyword lexeme, see Symbols, -1 for other
+    // tokens.
+    final int symbol;
+    // Index of the name among the engine's globals, set by the Resolver if
+    // it binds the name at global scope and -1 otherwise.
+    int global = -1;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,586 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+// Stack-based bytecode engine. Shares its globals with the tree-walking
+// Interpreter, which stays the reference implementation of the language.
+//
+// A call's window on the value stack starts with the callee, followed by the
+// function's frame of locals, which begins with the arguments as the caller
+// pushed them, and then the operands. Locals of captured scopes live in
+// Environments instead, chained from the one the function closes over.
+//
+// Numbers stay unboxed in numbers at the index of their stack slot, which
+// holds Environment.UNBOXED instead, as long as they don't leave the stack or
+// the Environments. The stack may still hold boxed numbers read from globals,
+// properties or natives, so every instruction taking numbers accepts both.
+class VM {
+    private static final Object UNBOXED = Environment.UNBOXED;
+    private static final int FRAMES_MAX = 1 << 16;
+
+    private static class Frame {
+        VMFunction function;
+        // Innermost captured scope.
+        Environment environment;
+        int ip;
+        // Stack index of the callee, where the return value ends up. The
+        // frame's locals start right above it.
+        int stackBase;
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    private Object[] stack = new Object[256];
+    private double[] numbers = new double[256];
+    private int sp = 0;
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    // Runs a program's top-level code, as BytecodeCompiler compiled it.
+    void interpret(FunctionProto script) {
+        try {
+            ensureStack(sp + 1);
+            stack[sp++] = new VMFunction(script, globals, this);
+            enter((VMFunction)stack[sp - 1], globals, sp - 1);
+            run(frameCount - 1);
+        } catch (RuntimeError error) {
+            sp = 0;
+            frameCount = 0;
+            interpreter.reporter.runtimeError(error);
+        }
+    }
+
+    // Runs a compiled function on behalf of a caller outside the VM loop.
+    Object invoke(VMFunction function, List<Object> arguments) {
+        int calleeIndex = sp;
+        ensureStack(calleeIndex + 1 + arguments.size());
+        stack[sp++] = function;
+        for (Object argument : arguments) {
+            stack[sp++] = argument;
+        }
+        enter(function, function.closure, calleeIndex);
+        return run(frameCount - 1);
+    }
+
+    // Executes until the frame at index baseFrame returns.
+    private Object run(int baseFrame) {
+        Frame frame = frames[frameCount - 1];
+        Chunk chunk = frame.function.proto.chunk;
+        byte[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        Environment environment = frame.environment;
+        int ip = frame.ip;
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        int sp = this.sp;
+        // Stack index of the frame's first local.
+        int base = frame.stackBase + 1;
+
+        for (;;) {
+            int start = ip;
+            switch (code[ip++]) {
+                case CONSTANT: {
+                    Object constant = constants[readShort(code, ip)];
+                    if (constant instanceof Double) {
+                        numbers[sp] = (double)constant;
+                        constant = UNBOXED;
+                    }
+                    stack[sp++] = constant;
+                    ip += 2;
+                    break;
+                }
+                case NIL:   stack[sp++] = null; break;
+                case TRUE:  stack[sp++] = true; break;
+                case FALSE: stack[sp++] = false; break;
+                case POP:   sp--; break;
+                case GET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    numbers[sp] = numbers[slot];
+                    stack[sp++] = stack[slot];
+                    ip += 2;
+                    break;
+                }
+                case SET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    numbers[slot] = numbers[sp - 1];
+                    stack[slot] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                }
+                case DEFINE_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    sp--;
+                    numbers[slot] = numbers[sp];
+                    stack[slot] = stack[sp];
+                    ip += 2;
+                    break;
+                }
+                // Environment walks are spelled out here since the dispatch loop
+                // is too large for the JIT to inline much into it.
+                case GET_CAPTURED: {
+                    Environment target = environment;
+                    for (int depth = readShort(code, ip); depth > 0; depth--) {
+                        target = target.enclosing;
+                    }
+                    int slot = readShort(code, ip + 2);
+                    Object value = target.slots[slot];
+                    if (value == UNBOXED) numbers[sp] = target.numbers[slot];
+                    stack[sp++] = value;
+                    ip += 4;
+                    break;
+                }
+                case SET_CAPTURED: {
+                    Environment target = environment;
+                    for (int depth = readShort(code, ip); depth > 0; depth--) {
+                        target = target.enclosing;
+                    }
+                    int slot = readShort(code, ip + 2);
+                    if (stack[sp - 1] == UNBOXED) {
+                        target.assignNumberAt(0, slot, numbers[sp - 1]);
+                    } else {
+                        target.slots[slot] = stack[sp - 1];
+                    }
+                    ip += 4;
+                    break;
+                }
+                case DEFINE_CAPTURED:
+                    sp--;
+                    if (stack[sp] == UNBOXED) {
+                        environment.defineNumber(numbers[sp]);
+                    } else {
+                        environment.define(stack[sp]);
+                    }
+                    break;
+                case GET_GLOBAL:
+                    stack[sp++] = globals.get(chunk.tokens[start]);
+                    ip += 2;
+                    break;
+                case SET_GLOBAL:
+                    globals.assign(chunk.tokens[start], value(stack, numbers, sp - 1));
+                    ip += 2;
+                    break;
+                case DEFINE_GLOBAL:
+                    sp--;
+                    globals.define(chunk.tokens[start].global, value(stack, numbers, sp));
+                    ip += 2;
+                    break;
+                case EQUAL:
+                    sp--;
+                    stack[sp - 1] = isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                case NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                case GREATER: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    stack[sp - 1] = number(stack, numbers, sp - 1) > right;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    stack[sp - 1] = number(stack, numbers, sp - 1) >= right;
+                    break;
+                }
+                case LESS: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    stack[sp - 1] = number(stack, numbers, sp - 1) < right;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    stack[sp - 1] = number(stack, numbers, sp - 1) <= right;
+                    break;
+                }
+                case ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (isNumber(left) && isNumber(right)) {
+                        numbers[sp - 1] = number(stack, numbers, sp - 1) + number(stack, numbers, sp);
+                        stack[sp - 1] = UNBOXED;
+                    } else if (left instanceof CharSequence || right instanceof CharSequence) {
+                        stack[sp - 1] = Rope.concat(
+                            value(stack, numbers, sp - 1), value(stack, numbers, sp));
+                    } else {
+                        throw new RuntimeError(chunk.tokens[start],
+                            "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case SUBTRACT: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    numbers[sp - 1] = number(stack, numbers, sp - 1) - right;
+                    stack[sp - 1] = UNBOXED;
+                    break;
+                }
+                case MULTIPLY: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    numbers[sp - 1] = number(stack, numbers, sp - 1) * right;
+                    stack[sp - 1] = UNBOXED;
+                    break;
+                }
+                case DIVIDE: {
+                    checkNumberOperands(stack, sp, chunk.tokens[start]);
+                    double right = number(stack, numbers, --sp);
+                    numbers[sp - 1] = number(stack, numbers, sp - 1) / right;
+                    stack[sp - 1] = UNBOXED;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = !isTruthy(stack, numbers, sp - 1);
+                    break;
+                case NEGATE:
+                    if (!isNumber(stack[sp - 1])) {
+                        throw new RuntimeError(chunk.tokens[start], "Operand must be a number.");
+                    }
+                    numbers[sp - 1] = -number(stack, numbers, sp - 1);
+                    stack[sp - 1] = UNBOXED;
+                    break;
+                case JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case JUMP_IF_FALSE:
+                    ip += isTruthy(stack, numbers, sp - 1) ? 2 : 2 + readShort(code, ip);
+                    break;
+                case JUMP_IF_TRUE:
+                    ip += isTruthy(stack, numbers, sp - 1) ? 2 + readShort(code, ip) : 2;
+                    break;
+                case LOOP:
+                    ip += 2 - readShort(code, ip);
+                    break;
+                case INVOKE: {
+                    PropertyCache cache = (PropertyCache)constants[readShort(code, ip)];
+                    int argCount = code[ip + 2] & 0xff;
+                    int receiverIndex = sp - 1 - argCount;
+                    Object receiver = value(stack, numbers, receiverIndex);
+                    LoxCallable method = cache.method(receiver, chunk.tokens[start]);
+                    frame.ip = ip + 3;
+                    frame.environment = environment;
+                    this.sp = sp;
+                    if (method instanceof VMFunction && ((VMFunction)method).vm == this &&
+                        method.arity() == argCount) {
+                        // Binds 'this' in the frame's enclosing Environment
+                        // instead of allocating a bound method, see
+                        // VMFunction.bind().
+                        checkDepth(chunk.tokens[start]);
+                        VMFunction target = (VMFunction)method;
+                        Environment bound = new Environment(target.closure, 1);
+                        bound.define(receiver);
+                        frame = enter(target, bound, receiverIndex);
+                    } else {
+                        // Anything else is read like a property and called
+                        // like a function.
+                        stack[receiverIndex] = method != null
+                            ? method.bind((LoxInstance)receiver)
+                            : cache.get(receiver, chunk.tokens[start]);
+                        frame = call(receiverIndex, argCount, chunk.tokens[start], false);
+                    }
+                    chunk = frame.function.proto.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    environment = frame.environment;
+                    ip = frame.ip;
+                    stack = this.stack;
+                    numbers = this.numbers;
+                    sp = this.sp;
+                    base = frame.stackBase + 1;
+                    break;
+                }
+                case CALL:
+                case TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    frame.environment = environment;
+                    this.sp = sp;
+                    frame = call(sp - 1 - argCount, argCount, chunk.tokens[start], code[start] == TAIL_CALL);
+                    chunk = frame.function.proto.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    environment = frame.environment;
+                    ip = frame.ip;
+                    stack = this.stack;
+                    numbers = this.numbers;
+                    sp = this.sp;
+                    base = frame.stackBase + 1;
+                    break;
+                }
+                case CLOSURE:
+                    stack[sp++] = new VMFunction((FunctionProto)constants[readShort(code, ip)], environment, this);
+                    ip += 2;
+                    break;
+                case CLASS: {
+                    int methodCount = code[ip + 2] & 0xff;
+                    Map<String, LoxCallable> methods = new HashMap<>();
+                    for (int i = sp - methodCount; i < sp; i++) {
+                        VMFunction method = (VMFunction)stack[i];
+                        methods.put(method.proto.name, method);
+                    }
+                    sp -= methodCount;
+                    LoxClass superclass = null;
+                    if (code[ip + 3] != 0) {
+                        Object value = stack[--sp];
+                        if (!(value instanceof LoxClass)) {
+                            throw new RuntimeError(chunk.tokens[ip + 3], "Superclass must be a class.");
+                        }
+                        superclass = (LoxClass)value;
+                    }
+                    stack[sp++] = new LoxClass((String)constants[readShort(code, ip)], superclass, methods);
+                    ip += 4;
+                    break;
+                }
+                case GET_SUPER: {
+                    LoxClass superclass = (LoxClass)stack[--sp];
+                    stack[sp - 1] = superclass.bindSuper((LoxInstance)stack[sp - 1], chunk.tokens[start]);
+                    break;
+                }
+                case GET_PROPERTY: {
+                    PropertyCache cache = (PropertyCache)constants[readShort(code, ip)];
+                    stack[sp - 1] = cache.get(stack[sp - 1], chunk.tokens[start]);
+                    ip += 2;
+                    break;
+                }
+                case SET_PROPERTY: {
+                    PropertyCache cache = (PropertyCache)constants[readShort(code, ip)];
+                    Object value = value(stack, numbers, --sp);
+                    cache.set(stack[sp - 1], chunk.tokens[start], value);
+                    stack[sp - 1] = value;
+                    ip += 2;
+                    break;
+                }
+                // A list of numbers indexed by a number reads and writes
+                // them without boxing.
+                case GET_INDEX: {
+                    sp--;
+                    Object target = stack[sp - 1];
+                    if (stack[sp] == UNBOXED && target instanceof LoxList &&
+                        ((LoxList)target).isPacked()) {
+                        LoxList list = (LoxList)target;
+                        numbers[sp - 1] = list.getNumber(list.index(numbers[sp], chunk.tokens[start]));
+                        stack[sp - 1] = UNBOXED;
+                        break;
+                    }
+                    stack[sp - 1] = Subscript.get(target, value(stack, numbers, sp), chunk.tokens[start]);
+                    break;
+                }
+                case SET_INDEX: {
+                    sp -= 2;
+                    Object target = stack[sp - 1];
+                    if (stack[sp] == UNBOXED && stack[sp + 1] == UNBOXED &&
+                        target instanceof LoxList) {
+                        LoxList list = (LoxList)target;
+                        list.setNumber(list.index(numbers[sp], chunk.tokens[start]), numbers[sp + 1]);
+                    } else {
+                        Subscript.set(target, value(stack, numbers, sp),
+                            value(stack, numbers, sp + 1), chunk.tokens[start]);
+                    }
+                    numbers[sp - 1] = numbers[sp + 1];
+                    stack[sp - 1] = stack[sp + 1];
+                    break;
+                }
+                case PUSH_SCOPE:
+                    environment = new Environment(environment, readShort(code, ip));
+                    ip += 2;
+                    break;
+                case POP_SCOPE:
+                    environment = environment.enclosing;
+                    break;
+                case RETURN: {
+                    Object result = stack[--sp];
+                    double number = numbers[sp];
+                    sp = frame.stackBase;
+                    frames[--frameCount] = null;
+                    if (frameCount == baseFrame) {
+                        this.sp = sp;
+                        return result == UNBOXED ? (Object)number : result;
+                    }
+
+                    frame = frames[frameCount - 1];
+                    chunk = frame.function.proto.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    environment = frame.environment;
+                    ip = frame.ip;
+                    base = frame.stackBase + 1;
+                    numbers[sp] = number;
+                    stack[sp++] = result;
+                    break;
+                }
+                default:
+                    throw new RuntimeError(chunk.tokens[start], "Unknown opcode " + code[start] + ".");
+            }
+        }
+    }
+
+    /// Helpers
+
+    // Calls the callee below the argCount arguments on top of the stack and
+    // returns the frame to carry on in. A function compiled for this VM gets
+    // a frame of its own, or takes over the caller's for a tail call, and
+    // anything else is called right away, its result replacing the callee.
+    // The caller syncs sp and its frame's ip and environment beforehand.
+    private Frame call(int calleeIndex, int argCount, Token paren, boolean tail) {
+        Object callee = stack[calleeIndex];
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable)callee;
+        if (argCount != function.arity()) {
+            throw arityError(paren, function, argCount);
+        }
+
+        if (!(callee instanceof VMFunction) || ((VMFunction)callee).vm != this) {
+            Object result;
+            try {
+                result = callNative(function, calleeIndex);
+            } catch (NativeError error) {
+                throw error.at(paren);
+            }
+            stack[calleeIndex] = result;
+            sp = calleeIndex + 1;
+            return frames[frameCount - 1];
+        }
+
+        VMFunction target = (VMFunction)callee;
+        if (!tail) {
+            checkDepth(paren);
+            return enter(target, target.closure, calleeIndex);
+        }
+
+        // The caller has nothing left to do, so the callee takes over its
+        // frame, arguments moved down to where the caller's locals were. The
+        // RETURN that follows is never reached.
+        Frame frame = frames[frameCount - 1];
+        System.arraycopy(stack, calleeIndex, stack, frame.stackBase, argCount + 1);
+        System.arraycopy(numbers, calleeIndex, numbers, frame.stackBase, argCount + 1);
+        sp = frame.stackBase + 1 + argCount;
+        frame.function = target;
+        frame.environment = parameters(target, target.closure, frame.stackBase);
+        frame.ip = 0;
+        reserve(target, frame.stackBase);
+        return frame;
+    }
+
+    // Pushes a frame running target, whose arguments are on top of the stack
+    // above it at calleeIndex, with closure as the Environment it closes
+    // over.
+    private Frame enter(VMFunction target, Environment closure, int calleeIndex) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        Frame frame = new Frame();
+        frame.function = target;
+        frame.environment = parameters(target, closure, calleeIndex);
+        frame.stackBase = calleeIndex;
+        frames[frameCount++] = frame;
+        reserve(target, calleeIndex);
+        return frame;
+    }
+
+    // Moves the arguments into an Environment if the function's closures
+    // capture them, and otherwise leaves them where they are as the first
+    // locals of the frame.
+    private Environment parameters(VMFunction target, Environment closure, int calleeIndex) {
+        if (!target.proto.captured) return closure;
+        Environment environment = new Environment(closure, target.proto.slotCount);
+        for (int i = calleeIndex + 1; i < sp; i++) {
+            if (stack[i] == UNBOXED) {
+                environment.defineNumber(numbers[i]);
+            } else {
+                environment.define(stack[i]);
+            }
+        }
+        return environment;
+    }
+
+    // Sets sp above the frame's locals and makes room on the value stack for
+    // everything the function can push, so the dispatch loop never has to
+    // check for overflow. Locals beyond the arguments keep whatever the
+    // stack held, since every local is defined before it is read.
+    private void reserve(VMFunction target, int calleeIndex) {
+        FunctionProto proto = target.proto;
+        sp = calleeIndex + 1 + proto.frameSize;
+        ensureStack(sp + proto.chunk.maxStack);
+    }
+
+    private void checkDepth(Token paren) {
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    // Calls anything that is not compiled for this VM. The callee may re-enter
+    // the VM through invoke(), so the caller has to sync sp beforehand.
+    private Object callNative(LoxCallable function, int calleeIndex) {
+        List<Object> arguments = new ArrayList<>(sp - calleeIndex - 1);
+        for (int i = calleeIndex + 1; i < sp; i++) {
+            arguments.add(value(stack, numbers, i));
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    private static RuntimeError arityError(Token paren, LoxCallable function, int argCount) {
+        return new RuntimeError(paren, "Expected " + function.arity() +
+            " arguments but got " + argCount + ".");
+    }
+
+    private void ensureStack(int needed) {
+        if (needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+            numbers = Arrays.copyOf(numbers, stack.length);
+        }
+    }
+
+    private static int readShort(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private static void checkNumberOperands(Object[] stack, int sp, Token operator) {
+        if (isNumber(stack[sp - 2]) && isNumber(stack[sp - 1])) return;
+        throw new RuntimeError(operator, "Operands must be a numbers.");
+    }
+
+    private static boolean isNumber(Object value) {
+        return value == UNBOXED || value instanceof Double;
+    }
+
+    private static double number(Object[] stack, double[] numbers, int index) {
+        return stack[index] == UNBOXED ? numbers[index] : (double)stack[index];
+    }
+
+    // The value at index, boxed if it is a number, for anything that keeps
+    // it or hands it outside the VM.
+    private static Object value(Object[] stack, double[] numbers, int index) {
+        return stack[index] == UNBOXED ? (Object)numbers[index] : stack[index];
+    }
+
+    private static boolean isTruthy(Object[] stack, double[] numbers, int index) {
+        return stack[index] == UNBOXED ? numbers[index] != 0 : Interpreter.isTruthy(stack[index]);
+    }
+
+    // Interpreter.isEqual() compares numbers as Doubles, so 0 and -0 differ
+    // and NaN equals itself.
+    private static boolean isEqual(Object[] stack, double[] numbers, int left, int right) {
+        if (stack[left] == UNBOXED && stack[right] == UNBOXED) {
+            return Double.doubleToLongBits(numbers[left]) == Double.doubleToLongBits(numbers[right]);
+        }
+        return Interpreter.isEqual(value(stack, numbers, left), value(stack, numbers, right));
+    }
+}
@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class VMFunction implements LoxCallable {
+    final FunctionProto proto;
+    final Environment closure;
+    final VM vm;
+
+    VMFunction(FunctionProto proto, Environment closure, VM vm) {
+        this.proto = proto;
+        this.closure = closure;
+        this.vm = vm;
+    }
+
+    // Only reached when called from outside the VM loop, calls between
+    // compiled functions push a frame instead.
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return vm.invoke(this, arguments);
+    }
+
+    @Override
+    public LoxCallable bind(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(instance);
+        return new VMFunction(proto, environment, vm);
+    }
+
+    @Override
+    public int arity() {
+        return proto.arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + proto.name + ">";
+    }
+}
@@ -4,13 +4,18 @@ import java.util.List;
 
 import com.craftinginterpreters.lox.*;
 
-public class Clock implements LoxCallable {
+public class Clock implements NativeFunction {
     @Override
     public int arity() { return 0; }
 
     @Override
     public Object call(Interpreter interpreter,
                         List<Object> arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         return (double)System.currentTimeMillis() / 1000.0;
     }
 
@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import com.craftinginterpreters.lox.*;
+
+// The natives built into the interpreter.
+public class Core implements NativeModule {
+    @Override
+    public void register(Natives natives) {
+        natives.define("clock", new Clock());
+        natives.define("print", new Print());
+
+        natives.define("list", new NewList());
+        natives.define("push", new Push());
+        natives.define("len", new Len());
+        natives.define("map", new NewMap());
+        natives.define("has", new Has());
+        natives.define("remove", new Remove());
+        natives.define("keys", new Keys());
+
+        natives.define("abs", NumberFunction.of(Math::abs));
+        natives.define("floor", NumberFunction.of(Math::floor));
+        natives.define("sqrt", NumberFunction.of(Math::sqrt));
+        natives.define("min", NumberFunction.of(Math::min));
+        natives.define("max", NumberFunction.of(Math::max));
+    }
+}
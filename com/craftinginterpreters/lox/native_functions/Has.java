@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// has(map, key) tells whether the map holds the key.
+public class Has implements NativeFunction {
+    @Override
+    public int arity() { return 2; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call2(interpreter, arguments.get(0), arguments.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object map, Object key) {
+        if (!(map instanceof LoxMap)) throw new NativeError("Can only look up keys in a map.");
+        return ((LoxMap)map).containsKey(key);
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
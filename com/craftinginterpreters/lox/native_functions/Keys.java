@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// keys(map) is a list of the keys of the map, in no particular order.
+public class Keys implements NativeFunction {
+    @Override
+    public int arity() { return 1; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call1(interpreter, arguments.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object map) {
+        if (!(map instanceof LoxMap)) throw new NativeError("Can only list the keys of a map.");
+        return ((LoxMap)map).keys();
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
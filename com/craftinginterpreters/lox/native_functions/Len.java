@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// len(x) is the number of elements of a list, entries of a map or
+// characters of a string.
+public class Len implements NativeFunction {
+    @Override
+    public int arity() { return 1; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call1(interpreter, arguments.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object value) {
+        if (value instanceof LoxList) return (double)((LoxList)value).size();
+        if (value instanceof LoxMap) return (double)((LoxMap)value).size();
+        if (value instanceof CharSequence) return (double)((CharSequence)value).length();
+        throw new NativeError("Can only take the length of a list, map or string.");
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// list(n) makes a list of n zeros.
+public class NewList implements NativeFunction {
+    // The most elements a Java array can have on common JVMs.
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    @Override
+    public int arity() { return 1; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call1(interpreter, arguments.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object size) {
+        if (!(size instanceof Double) || !((double)size >= 0 && (double)size <= MAX_SIZE) ||
+            (double)size != Math.floor((double)size)) {
+            throw new NativeError("List size must be a whole number from 0 to " + MAX_SIZE + ".");
+        }
+        return new LoxList((int)(double)size);
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
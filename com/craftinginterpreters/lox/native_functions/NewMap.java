@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// map() makes an empty map.
+public class NewMap implements NativeFunction {
+    @Override
+    public int arity() { return 0; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return new LoxMap();
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
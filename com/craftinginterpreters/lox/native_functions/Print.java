@@ -3,15 +3,20 @@ import java.util.List;
 
 import com.craftinginterpreters.lox.*;
 
-public class Print implements LoxCallable {
+public class Print implements NativeFunction {
     @Override
     public int arity() { return 1; }
     
     @Override
     public Object call(Interpreter interpreter,
                         List<Object> arguments) {
-        String output = String.valueOf(arguments.get(0));
-        System.out.println(output);
+        return call1(interpreter, arguments.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object value) {
+        String output = String.valueOf(value);
+        interpreter.out().println(output);
         return null;
     }
     
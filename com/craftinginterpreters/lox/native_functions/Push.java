@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// push(list, value) appends value to the list.
+public class Push implements NativeFunction {
+    @Override
+    public int arity() { return 2; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call2(interpreter, arguments.get(0), arguments.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object list, Object value) {
+        if (!(list instanceof LoxList)) throw new NativeError("Can only push to a list.");
+        ((LoxList)list).add(value);
+        return null;
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox.native_functions;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.*;
+
+// remove(map, key) removes the key from the map, telling whether it was
+// there.
+public class Remove implements NativeFunction {
+    @Override
+    public int arity() { return 2; }
+
+    @Override
+    public Object call(Interpreter interpreter,
+                        List<Object> arguments) {
+        return call2(interpreter, arguments.get(0), arguments.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object map, Object key) {
+        if (!(map instanceof LoxMap)) throw new NativeError("Can only remove keys from a map.");
+        return ((LoxMap)map).remove(key);
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
@@ -13,24 +13,33 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign     : Token name, Expr value",
-            "Binary     : Expr left, Token operator, Expr right",
-            "Call       : Expr callee, Token paren, List<Expr> arguments",
+            "Assign     : Token name, Expr value | int depth = -1, int slot = -1, int frameSlot = -1, int heapDepth = -1",
+            "Binary     : Expr left, Token operator, Expr right | int specialization = 0",
+            "Call       : Expr callee, Token paren, List<Expr> arguments | InlineCache cache = new InlineCache()",
+            "Get        : Expr object, Token name | PropertyCache cache = new PropertyCache()",
             "Grouping   : Expr expression",
+            "Index      : Expr object, Token bracket, Expr index",
             "Literal    : Object value",
             "Logical    : Expr left, Token operator, Expr right",
-            "Variable   : Token name",
+            "Set        : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
+            "SetIndex   : Expr object, Token bracket, Expr index, Expr value",
+            "Super      : Token keyword, Token method | int depth = -1, int slot = -1, int heapDepth = -1",
+            "This       : Token keyword | int depth = -1, int slot = -1, int heapDepth = -1",
+            "Variable   : Token name | int depth = -1, int slot = -1, int frameSlot = -1, int heapDepth = -1",
             "Unary      : Token operator, Expr right"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block      : List<Stmt> statements",
-            "Class      : Token name, List<Stmt.Function> methods",
+            "Block      : List<Stmt> statements | int slotCount = 0, boolean onStack = false, int frameSize = 0, boolean scoped = true",
+            "Break      : Token keyword",
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Continue   : Token keyword",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "For        : Expr condition, Stmt body, Expr increment",
+            "Function   : Token name, List<Token> params, List<Stmt> body | int slotCount = 0, boolean declaresClosures = false, int frameSize = 0, int hotness = 0, volatile JitCode jitCode = null, Memo memo = null",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "While      : Expr condition, Stmt body",
-            "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer"
+            "Return     : Token keyword, Expr value | boolean tailCall = false",
+            "Var        : Token name, Expr initializer | int frameSlot = -1"
         ));
     }
 
@@ -49,8 +58,10 @@ public class GenerateAst {
         // The AST classes.
         for (String type: types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fieldLists = type.split(":")[1].split("\\|");
+            String fields = fieldLists[0].trim();
+            String resolvedFields = fieldLists.length > 1 ? fieldLists[1].trim() : null;
+            defineType(writer, baseName, className, fields, resolvedFields);
         }
 
         // The base accept() method.
@@ -75,7 +86,8 @@ public class GenerateAst {
         writer.println(" }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className,
+        String fieldList, String resolvedFieldList) {
         writer.println();
         writer.println(" static class " + className + " extends " + baseName + " {");
 
@@ -104,6 +116,14 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Fields after the '|' are not set by the Parser, later passes fill them in.
+        if (resolvedFieldList != null) {
+            writer.println();
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
         writer.println(" }");
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+#!/bin/bash
+
+# Runs each test/*.lox script under every engine and setting, and compares
+# what it prints, output and errors together, with test/<name>.expected.
+# The engines must all agree with the tree-walker, which wrote the expected
+# files. Run from anywhere once the interpreter is compiled (`make compile`).
+
+cd "$(dirname "$0")/.." || exit 1
+
+configs=(
+  ""
+  "--engine=vm"
+  "--engine=closure"
+  "--no-jit"
+  "--jit-threshold=1"
+  "--opt-level=0"
+  "--opt-level=2"
+  # Twice: the first run stores the .loxc file, the second loads it.
+  "--cache"
+  "--cache"
+)
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"; rm -f test/*.loxc' EXIT
+
+passed=0
+failed=0
+
+# check <name> <expected file> <script> <options...>
+check() {
+  local name=$1 expected=$2 script=$3
+  shift 3
+  java com.craftinginterpreters.lox.Lox "$@" "$script" > "$work/actual" 2>&1
+  if diff -q "$expected" "$work/actual" > /dev/null; then
+    passed=$((passed + 1))
+  else
+    failed=$((failed + 1))
+    echo "FAIL $name $*"
+    diff "$expected" "$work/actual" | head -n 20
+  fi
+}
+
+for config in "${configs[@]}"; do
+  for script in test/*.lox; do
+    name=$(basename "$script" .lox)
+    check "$name" "test/$name.expected" "$script" $config
+  done
+done
+
+# The VM numbers constants with 16 bits. A chunk that uses exactly 65536 of
+# them runs the same in every engine, one more is a compile error in the VM.
+# The constants are the name x, 0, the numbers assigned and the name print.
+constants() {
+  {
+    echo "var x = 0;"
+    seq 0 $(($1 - 1)) | awk '{ print "x = " $1 ".5;" }'
+    echo "print(x);"
+  } > "$work/$2.lox"
+}
+constants 65533 fits
+echo "65532.5" > "$work/fits.expected"
+constants 65534 overflows
+echo "[line 65536] Error at 'print': Too many constants in one chunk." \
+  > "$work/overflows.vm.expected"
+echo "65533.5" > "$work/overflows.expected"
+for config in "" "--engine=vm" "--engine=closure"; do
+  check constants_fit "$work/fits.expected" "$work/fits.lox" $config
+  expected="$work/overflows.expected"
+  [ "$config" = "--engine=vm" ] && expected="$work/overflows.vm.expected"
+  check constants_overflow "$expected" "$work/overflows.lox" $config
+done
+
+echo "$passed passed, $failed failed"
+[ "$failed" -eq 0 ]